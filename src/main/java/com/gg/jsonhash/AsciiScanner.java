@@ -0,0 +1,59 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+/**
+ * Copies runs of clean ASCII, i.e. characters below 0x80 other than the
+ * quote, into a byte buffer and returns where the run ends.
+ *
+ * This is the scalar scanner. The multi-release JAR also contains a
+ * VectorAsciiScanner under META-INF/versions/17 that scans a vector of
+ * characters at a time with the incubating Vector API. It is only picked
+ * when the jdk.incubator.vector module is present, e.g. when the JVM was
+ * started with --add-modules jdk.incubator.vector, and can be switched off
+ * with -Dcom.gg.jsonhash.vector=false.
+ */
+class AsciiScanner {
+  static final AsciiScanner INSTANCE = load();
+
+  private static AsciiScanner load() {
+    if (!Boolean.parseBoolean(System.getProperty("com.gg.jsonhash.vector", "true"))
+        || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+      return new AsciiScanner();
+    }
+    try {
+      return (AsciiScanner) Class.forName("com.gg.jsonhash.VectorAsciiScanner")
+          .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // Not running from the multi-release JAR
+      return new AsciiScanner();
+    }
+  }
+
+  // Copies chars[from, to) as bytes to target[position] up to the first
+  // non-ASCII character or, if stopAtQuote, quote and returns its index
+  int copyAscii(char[] chars, int from, int to, byte[] target, int position, boolean stopAtQuote) {
+    int quote = stopAtQuote ? '"' : -1;
+    int i = from;
+    char c;
+    while (i < to && (c = chars[i]) < 0x80 && c != quote) {
+      target[position++] = (byte) c;
+      i++;
+    }
+    return i;
+  }
+
+  // Same for UTF-8 bytes, which always stop at a quote
+  int copyAscii(byte[] bytes, int from, int to, byte[] target, int position) {
+    int i = from;
+    byte b;
+    while (i < to && (b = bytes[i]) >= 0 && b != '"') {
+      target[position++] = b;
+      i++;
+    }
+    return i;
+  }
+}
@@ -0,0 +1,288 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the canonical form of a value as UTF-8 straight into a SHA-256
+ * digest. Quotes are escaped and characters are encoded in the same pass, and
+ * runs of plain ASCII are copied into the digest buffer by the AsciiScanner,
+ * which is vectorized when the Vector API is available. The bytes are the same
+ * as those of {@code jsonString(...).getBytes(UTF_8)}.
+ *
+ * Writers are reused per thread. Nested hashes acquire their own writer, so a
+ * writer is never shared between an object and its children.
+ */
+final class CanonicalWriter {
+  private static final int BUFFER_SIZE = 8192;
+  private static final int MAX_POOLED = 64;
+  private static final ThreadLocal<ArrayDeque<CanonicalWriter>> POOL = ThreadLocal.withInitial(ArrayDeque::new);
+  // Same output as commons-codec's encodeBase64URLSafeString without its 8 KB buffer
+  private static final Base64.Encoder BASE64 = Base64.getUrlEncoder().withoutPadding();
+  private static final AsciiScanner SCANNER = AsciiScanner.INSTANCE;
+
+  private final MessageDigest digest;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private final StringBuilder scratch = new StringBuilder();
+  private char[] chunk;
+  private int position;
+
+  private CanonicalWriter() {
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  static CanonicalWriter acquire() {
+    CanonicalWriter writer = POOL.get().pollLast();
+    return writer != null ? writer : new CanonicalWriter();
+  }
+
+  static void release(CanonicalWriter writer) {
+    writer.position = 0;
+    writer.digest.reset();
+    ArrayDeque<CanonicalWriter> pool = POOL.get();
+    if (pool.size() < MAX_POOLED) {
+      pool.addLast(writer);
+    }
+  }
+
+  // Returns the truncated base64url hash of everything written so far
+  String finish(int hashLength) {
+    flush();
+    byte[] hash = digest.digest();
+    return BASE64.encodeToString(hash).substring(0, hashLength);
+  }
+
+  void write(char c) {
+    if (position == buffer.length) {
+      flush();
+    }
+    buffer[position++] = (byte) c;
+  }
+
+  // Writes the characters encoded as UTF-8 but not escaped, e.g. keys
+  void writeRaw(CharSequence chars) {
+    encode(chars, 0, chars.length(), false);
+  }
+
+  void writeString(CharSequence value) {
+    write('"');
+    encode(value, 0, value.length(), true);
+    write('"');
+  }
+
+  void writeString(StringLeaf value) {
+    write('"');
+    try {
+      value.writeTo(this);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    write('"');
+  }
+
+  void writeEscaped(CharSequence chars) {
+    encode(chars, 0, chars.length(), true);
+  }
+
+  // Reads and encodes the characters chunk by chunk
+  void writeEscaped(Reader reader) throws IOException {
+    char[] chunk = chunk();
+    int carried = 0;
+    while (true) {
+      int read = reader.read(chunk, carried, chunk.length - carried);
+      if (read < 0) {
+        encode(chunk, 0, carried, true);
+        return;
+      }
+
+      // Keep a trailing high surrogate for the next chunk to not split pairs
+      int end = carried + read;
+      carried = end > 0 && Character.isHighSurrogate(chunk[end - 1]) ? 1 : 0;
+      encode(chunk, 0, end - carried, true);
+      if (carried > 0) {
+        chunk[0] = chunk[end - 1];
+      }
+    }
+  }
+
+  // Copies ASCII bytes as they are and decodes from the first other byte on
+  void writeEscapedUtf8(byte[] bytes, int offset, int length) throws IOException {
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      if (buffer.length - position < 2) {
+        flush();
+      }
+
+      int limit = Math.min(end, i + buffer.length - position);
+      int clean = SCANNER.copyAscii(bytes, i, limit, buffer, position);
+      position += clean - i;
+      i = clean;
+      if (i == limit) {
+        continue;
+      }
+
+      if (bytes[i] == '"') {
+        if (buffer.length - position < 2) {
+          flush();
+        }
+        buffer[position++] = '\\';
+        buffer[position++] = '"';
+        i++;
+      } else {
+        writeEscaped(new InputStreamReader(new ByteArrayInputStream(bytes, i, end - i), StandardCharsets.UTF_8));
+        return;
+      }
+    }
+  }
+
+  void writeInt(int value) {
+    scratch.setLength(0);
+    writeRaw(scratch.append(value));
+  }
+
+  void writeTruncated(double value, int precision) {
+    scratch.setLength(0);
+    JsonHash.appendTruncated(scratch, value, precision);
+    writeRaw(scratch);
+  }
+
+  // Same output as JsonHash.appendValue
+  @SuppressWarnings("unchecked")
+  void writeValue(Object value) {
+    if (value instanceof String) {
+      writeString((String) value);
+    } else if (value instanceof StringLeaf) {
+      writeString((StringLeaf) value);
+    } else if (value instanceof Integer) {
+      writeInt((Integer) value);
+    } else if (value instanceof Number || value instanceof Boolean) {
+      writeRaw(value.toString());
+    } else if (value == null) {
+      writeRaw("null");
+    } else if (value instanceof List) {
+      write('[');
+      boolean first = true;
+      for (Object element : (List<?>) value) {
+        if (!first)
+          write(',');
+        writeValue(element);
+        first = false;
+      }
+      write(']');
+    } else if (value instanceof Map) {
+      write('{');
+      boolean first = true;
+      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+        if (!first)
+          write(',');
+        write('"');
+        writeRaw(entry.getKey());
+        writeRaw("\":");
+        writeValue(entry.getValue());
+        first = false;
+      }
+      write('}');
+    } else {
+      throw new RuntimeException("Unsupported type: " + value.getClass());
+    }
+  }
+
+  // Copies the characters chunk by chunk to encode them as an array
+  private void encode(CharSequence chars, int start, int end, boolean escapeQuotes) {
+    char[] chunk = chunk();
+    int i = start;
+    while (i < end) {
+      int chunkEnd = Math.min(end, i + chunk.length);
+      if (chunkEnd < end && Character.isHighSurrogate(chars.charAt(chunkEnd - 1))) {
+        chunkEnd--;
+      }
+      if (chars instanceof String) {
+        ((String) chars).getChars(i, chunkEnd, chunk, 0);
+      } else if (chars instanceof StringBuilder) {
+        ((StringBuilder) chars).getChars(i, chunkEnd, chunk, 0);
+      } else {
+        for (int j = i; j < chunkEnd; j++) {
+          chunk[j - i] = chars.charAt(j);
+        }
+      }
+      encode(chunk, 0, chunkEnd - i, escapeQuotes);
+      i = chunkEnd;
+    }
+  }
+
+  private void encode(char[] chars, int start, int end, boolean escapeQuotes) {
+    int i = start;
+    while (i < end) {
+      if (buffer.length - position < 4) {
+        flush();
+      }
+
+      // Copy clean ASCII until a quote, a non-ASCII character or a full buffer
+      int limit = Math.min(end, i + buffer.length - position);
+      int clean = SCANNER.copyAscii(chars, i, limit, buffer, position, escapeQuotes);
+      position += clean - i;
+      i = clean;
+      if (i == limit) {
+        continue;
+      }
+
+      if (buffer.length - position < 4) {
+        flush();
+      }
+      char c = chars[i++];
+      if (c == '"') {
+        buffer[position++] = '\\';
+        buffer[position++] = '"';
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xC0 | c >> 6);
+        buffer[position++] = (byte) (0x80 | c & 0x3F);
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i < end && Character.isLowSurrogate(chars[i])) {
+          int codePoint = Character.toCodePoint(c, chars[i++]);
+          buffer[position++] = (byte) (0xF0 | codePoint >> 18);
+          buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+          buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+          buffer[position++] = (byte) (0x80 | codePoint & 0x3F);
+        } else {
+          // String.getBytes replaces unpaired surrogates with '?'
+          buffer[position++] = '?';
+        }
+      } else {
+        buffer[position++] = (byte) (0xE0 | c >> 12);
+        buffer[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+        buffer[position++] = (byte) (0x80 | c & 0x3F);
+      }
+    }
+  }
+
+  private char[] chunk() {
+    if (chunk == null) {
+      chunk = new char[BUFFER_SIZE];
+    }
+    return chunk;
+  }
+
+  private void flush() {
+    digest.update(buffer, 0, position);
+    position = 0;
+  }
+}
@@ -0,0 +1,42 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Supplies precomputed hashes for nested objects. {@link JsonHash} consults
+ * the resolver before descending into a nested object. When a hash is
+ * returned, the object is neither traversed, copied nor annotated.
+ */
+@FunctionalInterface
+public interface HashResolver {
+  /**
+   * Returns the known hash of the given object or null when it is unknown.
+   */
+  String resolve(Map<String, Object> obj);
+
+  /**
+   * Resolves objects by identity, e.g. shared reference tables. An
+   * IdentityHashMap is required because a regular map would call hashCode and
+   * equals, which traverse the tables and merge distinct but equal ones.
+   */
+  static HashResolver byIdentity(IdentityHashMap<Map<String, Object>, String> hashes) {
+    Map<Map<String, Object>, String> index = new IdentityHashMap<>(hashes);
+    return index::get;
+  }
+
+  /**
+   * Resolves objects by the value of a designated id field.
+   */
+  static HashResolver byIdField(String idField, Map<?, String> hashes) {
+    return obj -> {
+      Object id = obj.get(idField);
+      return id == null ? null : hashes.get(id);
+    };
+  }
+}
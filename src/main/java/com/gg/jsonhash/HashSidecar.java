@@ -0,0 +1,245 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import com.google.gson.Gson;
+
+/**
+ * Stores the hashes of a JSON file in a sidecar file next to it, e.g.
+ * {@code config.json.hashes}. The sidecar holds a fingerprint of the JSON file
+ * (size, modification time and CRC32C), the hasher's configuration and the
+ * _hash of every object in depth-first order.
+ *
+ * {@link #load} applies the hashes from a fresh sidecar without hashing. Files
+ * without a fresh sidecar are hashed with {@link JsonHash#applyTo} and get a
+ * new sidecar.
+ */
+@SuppressWarnings("unchecked")
+public class HashSidecar {
+  public static final String EXTENSION = ".hashes";
+
+  private static final int MAGIC = 0x47474A48;
+  // Version 2: Merkle leaves and nodes are hashed with domain prefixes
+  private static final int VERSION = 2;
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  private final JsonHash hasher;
+
+  public HashSidecar(JsonHash hasher) {
+    this.hasher = hasher;
+  }
+
+  public static Path sidecarPath(Path jsonFile) {
+    return jsonFile.resolveSibling(jsonFile.getFileName() + EXTENSION);
+  }
+
+  /**
+   * Parses the JSON file and returns it with hashes, either taken from the
+   * sidecar or computed and then written to a new sidecar.
+   */
+  public Map<String, Object> load(Path jsonFile) throws IOException {
+    // The fingerprint and the parsed json come from the same bytes, so a
+    // concurrent edit cannot bind the hashes of old content to new content.
+    long modified = Files.getLastModifiedTime(jsonFile).toMillis();
+    byte[] content = Files.readAllBytes(jsonFile);
+    CRC32C crc = new CRC32C();
+    crc.update(content);
+    Fingerprint fingerprint = new Fingerprint(content.length, modified, crc.getValue());
+
+    Map<String, Object> json = parse(content);
+    List<String> hashes = readHashes(jsonFile, fingerprint);
+    if (hashes != null && applyHashes(json, hashes)) {
+      return json;
+    }
+
+    hasher.applyTo(json, true);
+    write(jsonFile, json, fingerprint);
+    return json;
+  }
+
+  public boolean isFresh(Path jsonFile) throws IOException {
+    return readHashes(jsonFile, fingerprint(jsonFile)) != null;
+  }
+
+  /**
+   * Writes the sidecar for a JSON file whose current content is the given
+   * hashed json. The file is fingerprinted now, so it must not have changed
+   * since the json was parsed. {@link #load} does not have that restriction.
+   */
+  public void write(Path jsonFile, Map<String, Object> hashedJson) throws IOException {
+    write(jsonFile, hashedJson, fingerprint(jsonFile));
+  }
+
+  private void write(Path jsonFile, Map<String, Object> hashedJson, Fingerprint fingerprint) throws IOException {
+    List<String> hashes = new ArrayList<>();
+    collectHashes(hashedJson, hashes);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    writeFingerprint(out, fingerprint);
+    out.writeInt(hashes.size());
+    for (String hash : hashes) {
+      byte[] encoded = hash == null ? new byte[0] : hash.getBytes(StandardCharsets.UTF_8);
+      out.writeShort(encoded.length);
+      out.write(encoded);
+    }
+    out.flush();
+
+    Path sidecar = sidecarPath(jsonFile);
+    Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+    Files.write(temp, bytes.toByteArray());
+    Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // Returns the hashes of a fresh sidecar or null
+  private List<String> readHashes(Path jsonFile, Fingerprint fingerprint) throws IOException {
+    Path sidecar = sidecarPath(jsonFile);
+    if (!Files.isRegularFile(sidecar)) {
+      return null;
+    }
+
+    // Read into the heap rather than mapped: a live mapping keeps Windows from
+    // replacing the sidecar when it is rewritten
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(sidecar));
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        return null;
+      }
+
+      long size = buffer.getLong();
+      long modified = buffer.getLong();
+      long checksum = buffer.getLong();
+      if (size != fingerprint.size || modified != fingerprint.modified || checksum != fingerprint.checksum
+          || !readConfiguration(buffer)) {
+        return null;
+      }
+
+      int count = buffer.getInt();
+      List<String> hashes = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        byte[] encoded = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(encoded);
+        hashes.add(encoded.length == 0 ? null : new String(encoded, StandardCharsets.UTF_8));
+      }
+      return hashes;
+    } catch (BufferUnderflowException e) {
+      return null;
+    }
+  }
+
+  private void writeFingerprint(DataOutputStream out, Fingerprint fingerprint) throws IOException {
+    out.writeLong(fingerprint.size);
+    out.writeLong(fingerprint.modified);
+    out.writeLong(fingerprint.checksum);
+    out.writeInt(hasher.getHashLength());
+    out.writeInt(hasher.getFloatingPointPrecision());
+    out.writeBoolean(hasher.isUpdateExistingHashes());
+    out.writeBoolean(hasher.isRecursive());
+    out.writeInt(hasher.getArrayChunkSize());
+  }
+
+  private boolean readConfiguration(ByteBuffer buffer) {
+    return buffer.getInt() == hasher.getHashLength()
+        && buffer.getInt() == hasher.getFloatingPointPrecision()
+        && (buffer.get() != 0) == hasher.isUpdateExistingHashes()
+        && (buffer.get() != 0) == hasher.isRecursive()
+        && buffer.getInt() == hasher.getArrayChunkSize();
+  }
+
+  // Fingerprints the file as it is now
+  private static Fingerprint fingerprint(Path file) throws IOException {
+    long modified = Files.getLastModifiedTime(file).toMillis();
+    CRC32C crc = new CRC32C();
+    long size;
+    // Read in chunks rather than mapped, for the same reason as in readHashes
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      size = channel.size();
+      ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+      while (channel.read(chunk.clear()) >= 0) {
+        crc.update(chunk.flip());
+      }
+    }
+    return new Fingerprint(size, modified, crc.getValue());
+  }
+
+  private static Map<String, Object> parse(byte[] content) {
+    return new Gson().fromJson(new String(content, StandardCharsets.UTF_8), Map.class);
+  }
+
+  private static void collectHashes(Object value, List<String> hashes) {
+    if (value instanceof Map) {
+      Map<String, Object> obj = (Map<String, Object>) value;
+      Object hash = obj.get("_hash");
+      hashes.add(hash instanceof String ? (String) hash : null);
+      for (Map.Entry<String, Object> entry : obj.entrySet()) {
+        collectHashes(entry.getValue(), hashes);
+      }
+    } else if (value instanceof List) {
+      for (Object element : (List<?>) value) {
+        collectHashes(element, hashes);
+      }
+    }
+  }
+
+  // Returns false when the sidecar does not match the structure of the json
+  private static boolean applyHashes(Map<String, Object> json, List<String> hashes) {
+    List<Map<String, Object>> objects = new ArrayList<>();
+    collectObjects(json, objects);
+    if (objects.size() != hashes.size()) {
+      return false;
+    }
+    for (int i = 0; i < objects.size(); i++) {
+      if (hashes.get(i) != null) {
+        objects.get(i).put("_hash", hashes.get(i));
+      }
+    }
+    return true;
+  }
+
+  private static void collectObjects(Object value, List<Map<String, Object>> objects) {
+    if (value instanceof Map) {
+      Map<String, Object> obj = (Map<String, Object>) value;
+      objects.add(obj);
+      for (Map.Entry<String, Object> entry : obj.entrySet()) {
+        collectObjects(entry.getValue(), objects);
+      }
+    } else if (value instanceof List) {
+      for (Object element : (List<?>) value) {
+        collectObjects(element, objects);
+      }
+    }
+  }
+
+  private static final class Fingerprint {
+    final long size;
+    final long modified;
+    final long checksum;
+
+    Fingerprint(long size, long modified, long checksum) {
+      this.size = size;
+      this.modified = modified;
+      this.checksum = checksum;
+    }
+  }
+}
@@ -0,0 +1,290 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Keeps hashed documents in memory and indexes the _hash of every object they
+ * contain. Membership and lookups by hash take constant time. The index is
+ * updated incrementally when documents are added or removed.
+ *
+ * Hashes are folded into long keys of an open-addressing table. Each key
+ * points to a chain of locations, which are compared by their full hash.
+ * Not thread-safe.
+ */
+@SuppressWarnings("unchecked")
+public class HashedDocumentCollection {
+  private final JsonHash hasher;
+  private final Map<String, Document> documents = new HashMap<>();
+  private final LongIntHashTable heads = new LongIntHashTable();
+
+  // Doubly linked location chains, one per key, stored in parallel arrays
+  private Location[] locations = new Location[16];
+  private int[] next = new int[16];
+  private int[] previous = new int[16];
+  private int[] freeSlots = new int[16];
+  private int freeSlotCount;
+  private int usedSlots;
+
+  public HashedDocumentCollection(JsonHash hasher) {
+    this.hasher = hasher;
+  }
+
+  /**
+   * Hashes a copy of the document, indexes all of its objects and returns the
+   * hashed copy. A document with the same id is replaced.
+   */
+  public Map<String, Object> add(String id, Map<String, Object> document) {
+    remove(id);
+    Map<String, Object> hashed = hasher.applyTo(document);
+    Slots slots = new Slots();
+    index(id, hashed, "", slots);
+    documents.put(id, new Document(hashed, Arrays.copyOf(slots.values, slots.size)));
+    return hashed;
+  }
+
+  public boolean remove(String id) {
+    Document document = documents.remove(id);
+    if (document == null) {
+      return false;
+    }
+    for (int slot : document.slots) {
+      unlink(slot);
+    }
+    return true;
+  }
+
+  public Map<String, Object> get(String id) {
+    Document document = documents.get(id);
+    return document == null ? null : document.json;
+  }
+
+  public Set<String> ids() {
+    return Collections.unmodifiableSet(documents.keySet());
+  }
+
+  public int size() {
+    return documents.size();
+  }
+
+  public boolean contains(String hash) {
+    for (int slot = heads.get(key(hash)); slot != LongIntHashTable.MISSING; slot = next[slot]) {
+      if (locations[slot].hash.equals(hash)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public List<Location> locate(String hash) {
+    List<Location> result = new ArrayList<>();
+    for (int slot = heads.get(key(hash)); slot != LongIntHashTable.MISSING; slot = next[slot]) {
+      if (locations[slot].hash.equals(hash)) {
+        result.add(locations[slot]);
+      }
+    }
+    return result;
+  }
+
+  public Set<String> documentsContaining(String hash) {
+    Set<String> result = new LinkedHashSet<>();
+    for (Location location : locate(hash)) {
+      result.add(location.documentId);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the object with the given hash from any document or null.
+   */
+  public Map<String, Object> find(String hash) {
+    for (int slot = heads.get(key(hash)); slot != LongIntHashTable.MISSING; slot = next[slot]) {
+      Location location = locations[slot];
+      if (location.hash.equals(hash)) {
+        return resolve(documents.get(location.documentId).json, location.path);
+      }
+    }
+    return null;
+  }
+
+  private void index(String id, Map<String, Object> obj, String path, Slots slots) {
+    // Objects supplied by a HashResolver are not annotated
+    Object hash = obj.get("_hash");
+    if (hash instanceof String) {
+      slots.add(link(new Location(id, path, (String) hash)));
+    }
+    for (Map.Entry<String, Object> entry : obj.entrySet()) {
+      indexValue(id, entry.getValue(), path + "/" + escape(entry.getKey()), slots);
+    }
+  }
+
+  private void indexValue(String id, Object value, String path, Slots slots) {
+    if (value instanceof Map) {
+      index(id, (Map<String, Object>) value, path, slots);
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      for (int i = 0; i < list.size(); i++) {
+        indexValue(id, list.get(i), path + "/" + i, slots);
+      }
+    }
+  }
+
+  private int link(Location location) {
+    int slot;
+    if (freeSlotCount > 0) {
+      slot = freeSlots[--freeSlotCount];
+    } else {
+      if (usedSlots == locations.length) {
+        int capacity = locations.length * 2;
+        locations = Arrays.copyOf(locations, capacity);
+        next = Arrays.copyOf(next, capacity);
+        previous = Arrays.copyOf(previous, capacity);
+      }
+      slot = usedSlots++;
+    }
+
+    long key = key(location.hash);
+    int head = heads.get(key);
+    locations[slot] = location;
+    previous[slot] = LongIntHashTable.MISSING;
+    next[slot] = head;
+    if (head != LongIntHashTable.MISSING) {
+      previous[head] = slot;
+    }
+    heads.put(key, slot);
+    return slot;
+  }
+
+  private void unlink(int slot) {
+    int before = previous[slot];
+    int after = next[slot];
+    if (before != LongIntHashTable.MISSING) {
+      next[before] = after;
+    } else if (after != LongIntHashTable.MISSING) {
+      heads.put(key(locations[slot].hash), after);
+    } else {
+      heads.remove(key(locations[slot].hash));
+    }
+    if (after != LongIntHashTable.MISSING) {
+      previous[after] = before;
+    }
+
+    locations[slot] = null;
+    if (freeSlotCount == freeSlots.length) {
+      freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+    }
+    freeSlots[freeSlotCount++] = slot;
+  }
+
+  private static Map<String, Object> resolve(Map<String, Object> json, String path) {
+    if (path.isEmpty()) {
+      return json;
+    }
+    Object value = json;
+    for (String segment : path.substring(1).split("/", -1)) {
+      value = value instanceof List ? ((List<?>) value).get(Integer.parseInt(segment))
+          : ((Map<String, Object>) value).get(unescape(segment));
+    }
+    return (Map<String, Object>) value;
+  }
+
+  // Escapes a key as a JSON Pointer segment (RFC 6901)
+  private static String escape(String key) {
+    return key.replace("~", "~0").replace("/", "~1");
+  }
+
+  private static String unescape(String segment) {
+    return segment.replace("~1", "/").replace("~0", "~");
+  }
+
+  // FNV-1a over the characters of the hash
+  private static long key(String hash) {
+    long key = 0xcbf29ce484222325L;
+    for (int i = 0; i < hash.length(); i++) {
+      key = (key ^ hash.charAt(i)) * 0x100000001b3L;
+    }
+    return key;
+  }
+
+  private static final class Slots {
+    int[] values = new int[8];
+    int size;
+
+    void add(int slot) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = slot;
+    }
+  }
+
+  private static final class Document {
+    final Map<String, Object> json;
+    final int[] slots;
+
+    Document(Map<String, Object> json, int[] slots) {
+      this.json = json;
+      this.slots = slots;
+    }
+  }
+
+  public static final class Location {
+    private final String documentId;
+    private final String path;
+    private final String hash;
+
+    Location(String documentId, String path, String hash) {
+      this.documentId = documentId;
+      this.path = path;
+      this.hash = hash;
+    }
+
+    public String getDocumentId() {
+      return documentId;
+    }
+
+    /**
+     * The JSON Pointer of the object within its document, e.g. "/a/b/0". Keys
+     * are escaped, i.e. "~" becomes "~0" and "/" becomes "~1". The root object
+     * has the empty path.
+     */
+    public String getPath() {
+      return path;
+    }
+
+    public String getHash() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Location)) {
+        return false;
+      }
+      Location location = (Location) other;
+      return documentId.equals(location.documentId) && path.equals(location.path) && hash.equals(location.hash);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(documentId, path, hash);
+    }
+
+    @Override
+    public String toString() {
+      return documentId + ":" + path + " " + hash;
+    }
+  }
+}
@@ -6,15 +6,18 @@
 // found in the LICENSE file in the root of this package.
 package com.gg.jsonhash;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
-import org.apache.commons.codec.binary.Base64;
 
 @SuppressWarnings("unchecked")
 public class JsonHash {
@@ -22,6 +25,10 @@ public class JsonHash {
   private final int hashLength;
   private final int floatingPointPrecision;
   private final boolean recursive;
+  private final HashResolver hashResolver;
+  private final int arrayChunkSize;
+  private final ShapeCache shapeCache = new ShapeCache(ShapeCache.DEFAULT_MAX_SIZE);
+  private final Map<Class<?>, ObjectHasher<?>> objectHashers = new ConcurrentHashMap<>();
 
   public JsonHash() {
     this(22, 10, true, true);
@@ -32,10 +39,55 @@ public class JsonHash {
   }
 
   public JsonHash(int hashLength, int floatingPointPrecision, boolean updateExistingHashes, boolean recursive) {
+    this(hashLength, floatingPointPrecision, updateExistingHashes, recursive, null);
+  }
+
+  public JsonHash(int hashLength, int floatingPointPrecision, boolean updateExistingHashes, boolean recursive,
+      HashResolver hashResolver) {
+    this(hashLength, floatingPointPrecision, updateExistingHashes, recursive, hashResolver, 0);
+  }
+
+  /**
+   * Arrays with more than {@code arrayChunkSize} items are hashed as a
+   * {@link MerkleList} and contribute its root hash instead of their items.
+   * Use 0 to hash all arrays inline.
+   */
+  public JsonHash(int hashLength, int floatingPointPrecision, boolean updateExistingHashes, boolean recursive,
+      HashResolver hashResolver, int arrayChunkSize) {
     this.hashLength = hashLength;
     this.floatingPointPrecision = floatingPointPrecision;
     this.updateExistingHashes = updateExistingHashes;
     this.recursive = recursive;
+    this.hashResolver = hashResolver;
+    this.arrayChunkSize = arrayChunkSize;
+  }
+
+  public int getHashLength() {
+    return hashLength;
+  }
+
+  public int getFloatingPointPrecision() {
+    return floatingPointPrecision;
+  }
+
+  public boolean isUpdateExistingHashes() {
+    return updateExistingHashes;
+  }
+
+  public boolean isRecursive() {
+    return recursive;
+  }
+
+  public int getArrayChunkSize() {
+    return arrayChunkSize;
+  }
+
+  /**
+   * Returns a hasher generated for the given record or bean class. Its hashes
+   * equal the hashes of the object's Map representation.
+   */
+  public <T> ObjectHasher<T> objectHasher(Class<T> type) {
+    return (ObjectHasher<T>) objectHashers.computeIfAbsent(type, t -> new ObjectHasher<>(this, t));
   }
 
   public Map<String, Object> applyTo(Map<String, Object> json) {
@@ -43,7 +95,7 @@ public class JsonHash {
   }
 
   public Map<String, Object> applyTo(Map<String, Object> json, boolean inPlace) {
-    Map<String, Object> copy = inPlace ? json : copyJson(json);
+    Map<String, Object> copy = inPlace ? json : hashResolver == null ? copyJson(json) : copyUnresolved(json);
     addHashesToObject(copy, recursive);
     return copy;
   }
@@ -55,22 +107,195 @@ public class JsonHash {
     return gson.toJson(hashedJson);
   }
 
-  public String calcHash(String string) {
+  /**
+   * Returns the hash {@link #applyTo} would write into the root object, without
+   * annotating, copying or mutating the given json. The streaming variants do
+   * not consult the {@link HashResolver}.
+   */
+  public String rootHash(Map<String, Object> json) {
+    return hashObject(json, recursive, false);
+  }
+
+  public String rootHash(String jsonString) {
+    return rootHash(new JsonReader(new StringReader(jsonString)));
+  }
+
+  public String rootHash(InputStream jsonStream) {
+    return rootHash(new JsonReader(new InputStreamReader(jsonStream, StandardCharsets.UTF_8)));
+  }
+
+  private String rootHash(JsonReader reader) {
     try {
-      MessageDigest digest = MessageDigest.getInstance("SHA-256");
-      byte[] hash = digest.digest(string.getBytes(StandardCharsets.UTF_8));
-      return Base64.encodeBase64URLSafeString(hash).substring(0, hashLength);
-    } catch (NoSuchAlgorithmException e) {
+      if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+        throw new RuntimeException("Expected a JSON object but was " + reader.peek() + ".");
+      }
+      String hash = (String) readValue(reader);
+      if (reader.peek() != JsonToken.END_DOCUMENT) {
+        throw new RuntimeException("Unexpected content after the root object.");
+      }
+      return hash;
+    } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
+  // Streams through the json and keeps only the sorted child digests of the
+  // objects and arrays that are currently open.
+  private Object readValue(JsonReader reader) throws IOException {
+    Deque<StreamFrame> stack = new ArrayDeque<>();
+    Object result = null;
+    boolean isMember = false;
+
+    do {
+      JsonToken token = reader.peek();
+      Object value;
+      switch (token) {
+        case BEGIN_OBJECT:
+          reader.beginObject();
+          stack.push(new StreamFrame(true, isMember));
+          isMember = true;
+          continue;
+        case BEGIN_ARRAY:
+          reader.beginArray();
+          stack.push(new StreamFrame(false, isMember));
+          isMember = false;
+          continue;
+        case NAME:
+          stack.peek().key = reader.nextName();
+          continue;
+        case END_OBJECT:
+          reader.endObject();
+          value = stack.pop().objectHash();
+          break;
+        case END_ARRAY:
+          reader.endArray();
+          value = stack.pop().items.contribution();
+          break;
+        case STRING:
+          value = reader.nextString();
+          break;
+        case NUMBER:
+          value = reader.nextDouble();
+          break;
+        case BOOLEAN:
+          value = reader.nextBoolean();
+          break;
+        case NULL:
+          reader.nextNull();
+          value = null;
+          break;
+        default:
+          throw new RuntimeException("Unexpected token " + token + ".");
+      }
+
+      StreamFrame parent = stack.peek();
+      if (parent == null) {
+        result = value;
+      } else {
+        parent.add(value);
+        isMember = parent.isObject;
+      }
+    } while (!stack.isEmpty());
+
+    return result;
+  }
+
+  private final class StreamFrame {
+    final boolean isObject;
+    final boolean isObjectMember;
+    final Map<String, Object> members;
+    final MerkleList.Builder items;
+    String key;
+    String existingHash;
+
+    StreamFrame(boolean isObject, boolean isObjectMember) {
+      this.isObject = isObject;
+      this.isObjectMember = isObjectMember;
+      this.members = isObject ? new TreeMap<>() : null;
+      this.items = isObject ? null : new MerkleList.Builder(JsonHash.this, arrayChunkSize);
+    }
+
+    void add(Object value) {
+      if (!isObject) {
+        if (value != null) {
+          items.add(isBasicType(value) ? convertBasicType(value, floatingPointPrecision) : value);
+        }
+        return;
+      }
+
+      if (key.equals("_hash")) {
+        // Like applyTo, a _hash that is no string is replaced
+        existingHash = value instanceof String ? (String) value : null;
+      } else if (value == null) {
+        throw new RuntimeException("Unsupported type: null");
+      } else {
+        members.put(key, isBasicType(value) ? convertBasicType(value, floatingPointPrecision) : value);
+      }
+    }
+
+    String objectHash() {
+      if (existingHash != null && (!updateExistingHashes || (!recursive && isObjectMember))) {
+        return existingHash;
+      }
+      return hashCanonical(members);
+    }
+  }
+
+  public String calcHash(String string) {
+    return calcHash((CharSequence) string);
+  }
+
+  // Hashes the UTF-8 bytes of the characters without copying them first
+  String calcHash(CharSequence chars) {
+    CanonicalWriter writer = CanonicalWriter.acquire();
+    try {
+      writer.writeRaw(chars);
+      return writer.finish(hashLength);
+    } finally {
+      CanonicalWriter.release(writer);
+    }
+  }
+
+  // Same as calcHash(jsonString(...)) without building the string
+  String hashCanonical(Object value) {
+    CanonicalWriter writer = CanonicalWriter.acquire();
+    try {
+      writer.writeValue(value);
+      return writer.finish(hashLength);
+    } finally {
+      CanonicalWriter.release(writer);
+    }
+  }
+
   public void validate(Map<String, Object> json) throws Exception {
     Map<String, Object> jsonWithCorrectHashes = applyTo(json, false);
     validate(json, jsonWithCorrectHashes, "");
   }
 
-  private static void validate(Map<String, Object> jsonIs, Map<String, Object> jsonShould, String path)
+  /**
+   * Validates hashed json while reading it and stops at the first object whose
+   * _hash is missing or wrong. The error names the object's path and byte
+   * offset. Unlike {@link #validate(Map)}, every hash is recomputed regardless
+   * of updateExistingHashes and recursive. Memory is bounded per open object
+   * or array, see {@link StreamingValidator}.
+   *
+   * Hashers with a {@link HashResolver} are rejected with an
+   * IllegalStateException. Resolved objects are not annotated and the stream
+   * has no Map instances to resolve, so their hashes would be reported as
+   * missing.
+   */
+  public void validate(InputStream jsonStream) {
+    if (hashResolver != null) {
+      throw new IllegalStateException("Streaming validation does not support a HashResolver.");
+    }
+    try {
+      new StreamingValidator(this, jsonStream).validate();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void validate(Map<String, Object> jsonIs, Map<String, Object> jsonShould, String path)
       throws Exception {
     String expectedHash = (String) jsonShould.get("_hash");
     String actualHash = (String) jsonIs.get("_hash");
@@ -91,6 +316,8 @@ public class JsonHash {
         continue;
       if (item.getValue() instanceof Map) {
         Map<String, Object> childIs = (Map<String, Object>) item.getValue();
+        if (resolveHash(childIs) != null)
+          continue;
         Map<String, Object> childShould = (Map<String, Object>) jsonShould.get(item.getKey());
         validate(childIs, childShould, path + "/" + item.getKey());
       } else if (item.getValue() instanceof List) {
@@ -98,6 +325,8 @@ public class JsonHash {
         for (int i = 0; i < list.size(); i++) {
           if (list.get(i) instanceof Map) {
             Map<String, Object> itemIs = (Map<String, Object>) list.get(i);
+            if (resolveHash(itemIs) != null)
+              continue;
             Map<String, Object> itemShould = (Map<String, Object>) ((List<?>) jsonShould.get(item.getKey())).get(i);
             validate(itemIs, itemShould, path + "/" + item.getKey() + "/" + i);
           }
@@ -107,48 +336,60 @@ public class JsonHash {
   }
 
   private void addHashesToObject(Map<String, Object> obj, boolean recursive) {
+    hashObject(obj, recursive, true);
+  }
+
+  private String hashObject(Map<String, Object> obj, boolean recursive, boolean annotate) {
     if (!updateExistingHashes && obj.containsKey("_hash")) {
-      return;
+      return (String) obj.get("_hash");
     }
 
-    for (Map.Entry<String, Object> entry : obj.entrySet()) {
-      if (entry.getValue() instanceof Map) {
-        Map<String, Object> value = (Map<String, Object>) entry.getValue();
-        if (value.containsKey("_hash") && !recursive) {
-          continue;
+    ShapeCache.Shape shape = shapeCache.shapeOf(obj.keySet());
+    String hash;
+    CanonicalWriter canonical = CanonicalWriter.acquire();
+    try {
+      canonical.write('{');
+      for (int i = 0; i < shape.keys.length; i++) {
+        Object value = obj.get(shape.keys[i]);
+        canonical.writeRaw(shape.encodedKeys[i]);
+
+        if (value instanceof Map) {
+          canonical.writeValue(childHash((Map<String, Object>) value, annotate));
+        } else if (value instanceof List) {
+          canonical.writeValue(listContribution((List<?>) value, annotate));
+        } else if (value instanceof Double) {
+          canonical.writeTruncated((Double) value, floatingPointPrecision);
+        } else if (isBasicType(value)) {
+          canonical.writeValue(value);
+        } else {
+          throw new RuntimeException("Unsupported type: " + value.getClass());
         }
-        addHashesToObject(value, recursive);
-      } else if (entry.getValue() instanceof List) {
-        processList((List<?>) entry.getValue());
       }
+      canonical.write('}');
+      hash = canonical.finish(hashLength);
+    } finally {
+      CanonicalWriter.release(canonical);
     }
 
-    Map<String, Object> objToHash = new LinkedHashMap<>();
-    for (Map.Entry<String, Object> entry : obj.entrySet()) {
-      String key = entry.getKey();
-      if (key.equals("_hash"))
-        continue;
-      Object value = entry.getValue();
-
-      if (value instanceof Map) {
-        objToHash.put(key, ((Map<String, Object>) value).get("_hash"));
-      } else if (value instanceof List) {
-        objToHash.put(key, flattenList((List<?>) value));
-      } else if (isBasicType(value)) {
-        objToHash.put(key, convertBasicType(value, floatingPointPrecision));
-      } else {
-        throw new RuntimeException("Unsupported type: " + value.getClass());
-      }
+    if (annotate) {
+      obj.put("_hash", hash);
     }
+    return hash;
+  }
 
-    Map<String, Object> sortedMap = new TreeMap<>(objToHash);
-    String sortedMapJson = jsonString(sortedMap);
-    String hash = calcHash(sortedMapJson);
-    obj.put("_hash", hash);
+  Object childHash(Map<String, Object> child, boolean annotate) {
+    String resolvedHash = resolveHash(child);
+    if (resolvedHash != null) {
+      return resolvedHash;
+    }
+    if (child.containsKey("_hash") && !recursive) {
+      return child.get("_hash");
+    }
+    return hashObject(child, recursive, annotate);
   }
 
   public static Object convertBasicType(Object value, int floatingPointPrecision) {
-    if (value instanceof String) {
+    if (value instanceof String || value instanceof StringLeaf) {
       return value;
     }
     if (value instanceof Number) {
@@ -160,13 +401,52 @@ public class JsonHash {
     }
   }
 
-  private List<Object> flattenList(List<?> list) {
+  Object listContribution(List<?> list, boolean annotate) {
+    if (!isChunked(list)) {
+      return hashList(list, annotate);
+    }
+    // Chunk the items that are hashed, like the streaming paths do
+    List<Object> items = hashableItems(list);
+    if (!isChunked(items)) {
+      return hashList(items, annotate);
+    }
+    int chunkCount = (items.size() + arrayChunkSize - 1) / arrayChunkSize;
+    boolean parallel = !annotate && chunkCount >= MerkleList.PARALLEL_CHUNK_COUNT;
+    return new MerkleList(this, items, arrayChunkSize, parallel, annotate).rootHash();
+  }
+
+  boolean isChunked(List<?> list) {
+    return arrayChunkSize > 0 && list.size() > arrayChunkSize;
+  }
+
+  // The items hashList keeps. Nulls and unsupported items are dropped.
+  static List<Object> hashableItems(List<?> list) {
+    List<Object> items = new ArrayList<>(list.size());
+    for (Object element : list) {
+      if (isHashableItem(element)) {
+        items.add(element);
+      }
+    }
+    return items;
+  }
+
+  static boolean isHashableItem(Object element) {
+    return element instanceof Map || element instanceof List || isBasicType(element);
+  }
+
+  String hashFlattenedList(List<Object> flattenedList) {
+    return hashCanonical(flattenedList);
+  }
+
+  List<Object> hashList(List<?> list, boolean annotate) {
     List<Object> flattenedList = new ArrayList<>();
     for (Object element : list) {
       if (element instanceof Map) {
-        flattenedList.add(((Map<String, Object>) element).get("_hash"));
+        Map<String, Object> child = (Map<String, Object>) element;
+        String resolvedHash = resolveHash(child);
+        flattenedList.add(resolvedHash != null ? resolvedHash : hashObject(child, recursive, annotate));
       } else if (element instanceof List) {
-        flattenedList.add(flattenList((List<?>) element));
+        flattenedList.add(listContribution((List<?>) element, annotate));
       } else if (isBasicType(element)) {
         flattenedList.add(convertBasicType(element, floatingPointPrecision));
       }
@@ -174,13 +454,34 @@ public class JsonHash {
     return flattenedList;
   }
 
-  private void processList(List<?> list) {
-    for (Object element : list) {
-      if (element instanceof Map) {
-        addHashesToObject((Map<String, Object>) element, recursive);
-      } else if (element instanceof List) {
-        processList((List<?>) element);
+  private String resolveHash(Map<String, Object> obj) {
+    return hashResolver == null ? null : hashResolver.resolve(obj);
+  }
+
+  // Copies the json like copyJson but shares objects known to the resolver
+  // instead of traversing them.
+  private Map<String, Object> copyUnresolved(Map<String, Object> json) {
+    Map<String, Object> copy = new LinkedHashMap<>();
+    for (Map.Entry<String, Object> entry : json.entrySet()) {
+      copy.put(entry.getKey(), copyUnresolvedValue(entry.getValue()));
+    }
+    return copy;
+  }
+
+  private Object copyUnresolvedValue(Object value) {
+    if (value instanceof Map) {
+      Map<String, Object> obj = (Map<String, Object>) value;
+      return resolveHash(obj) != null ? obj : copyUnresolved(obj);
+    } else if (value instanceof List) {
+      List<Object> copy = new ArrayList<>();
+      for (Object element : (List<?>) value) {
+        copy.add(element == null ? null : copyUnresolvedValue(element));
       }
+      return copy;
+    } else if (isBasicType(value)) {
+      return value;
+    } else {
+      throw new RuntimeException("Unsupported type: " + value.getClass());
     }
   }
 
@@ -209,7 +510,8 @@ public class JsonHash {
         copy.add(copyJson((Map<String, Object>) element));
       } else if (element instanceof List) {
         copy.add(copyList((List<?>) element));
-      } else if (isBasicType(element)) {
+      } else if (element == null || isBasicType(element)) {
+        // Null items are kept in the copy but dropped when hashing
         copy.add(element);
       } else {
         throw new RuntimeException("Unsupported type: " + element.getClass());
@@ -219,7 +521,8 @@ public class JsonHash {
   }
 
   public static boolean isBasicType(Object value) {
-    return value instanceof String || value instanceof Integer || value instanceof Double || value instanceof Boolean;
+    return value instanceof String || value instanceof Integer || value instanceof Double || value instanceof Boolean
+        || value instanceof StringLeaf;
   }
 
   public static Number truncate(Number value, int precision) {
@@ -246,36 +549,78 @@ public class JsonHash {
     return Double.parseDouble(result);
   }
 
+  // Appends what truncate(value, precision).toString() returns, without boxing.
+  static void appendTruncated(StringBuilder builder, double value, int precision) {
+    String result = Double.toString(value);
+    int dot = result.indexOf('.');
+    String integerPart = result.substring(0, dot);
+    int end = Math.min(result.length(), dot + 1 + precision);
+    while (end > dot + 1 && result.charAt(end - 1) == '0') {
+      end--;
+    }
+
+    if (end == dot + 1) {
+      builder.append((int) Double.parseDouble(integerPart));
+    } else {
+      builder.append(Double.parseDouble(result.substring(0, end)));
+    }
+  }
+
   public static String jsonString(Map<String, Object> map) {
-    StringBuilder jsonBuilder = new StringBuilder("{");
-    List<String> entries = new ArrayList<>();
-    for (Map.Entry<String, Object> entry : map.entrySet()) {
-      String key = "\"" + entry.getKey() + "\"";
-      String value = encodeValue(entry.getValue());
-      entries.add(key + ":" + value);
-    }
-    jsonBuilder.append(String.join(",", entries));
-    jsonBuilder.append("}");
+    StringBuilder jsonBuilder = new StringBuilder();
+    appendValue(jsonBuilder, map);
     return jsonBuilder.toString();
   }
 
-  private static String encodeValue(Object value) {
+  static void appendValue(StringBuilder builder, Object value) {
     if (value instanceof String) {
-      return "\"" + ((String) value).replace("\"", "\\\"") + "\"";
+      appendString(builder, (String) value);
+    } else if (value instanceof StringLeaf) {
+      appendString(builder, value.toString());
     } else if (value instanceof Number || value instanceof Boolean) {
-      return value.toString();
+      builder.append(value);
     } else if (value == null) {
-      return "null";
+      builder.append("null");
     } else if (value instanceof List) {
-      return "[" + ((List<?>) value).stream().map(JsonHash::encodeValue).collect(Collectors.joining(",")) + "]";
+      builder.append('[');
+      boolean first = true;
+      for (Object element : (List<?>) value) {
+        if (!first)
+          builder.append(',');
+        appendValue(builder, element);
+        first = false;
+      }
+      builder.append(']');
     } else if (value instanceof Map) {
-      return jsonString((Map<String, Object>) value);
+      builder.append('{');
+      boolean first = true;
+      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+        if (!first)
+          builder.append(',');
+        builder.append('"').append(entry.getKey()).append("\":");
+        appendValue(builder, entry.getValue());
+        first = false;
+      }
+      builder.append('}');
     } else {
       throw new RuntimeException("Unsupported type: " + value.getClass());
     }
   }
 
+  // Escapes quotes in a single scan and appends strings without quotes as is.
+  static void appendString(StringBuilder builder, String value) {
+    builder.append('"');
+    int start = 0;
+    int quote = value.indexOf('"');
+    while (quote >= 0) {
+      builder.append(value, start, quote).append("\\\"");
+      start = quote + 1;
+      quote = value.indexOf('"', start);
+    }
+    builder.append(value, start, value.length()).append('"');
+  }
+
   public static void main(String[] args) {
-    // Test the JsonHash class here
+    System.exit(JsonHashCli.run(args, System.in, System.out, System.err));
   }
 }
@@ -0,0 +1,395 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+
+/**
+ * Command line interface of {@link JsonHash#main}. Hashes or validates files,
+ * directories and stdin and prints a throughput summary to stderr.
+ */
+@SuppressWarnings("unchecked")
+public final class JsonHashCli {
+  static final String USAGE = String.join("\n",
+      "Usage: java -jar gg-hash.jar [options] [path ...]",
+      "",
+      "Adds hashes to JSON files or validates them. Directories are searched",
+      "recursively for *.json files. Reads stdin when no path or \"-\" is given.",
+      "",
+      "Options:",
+      "  --validate           Validate the hashes instead of adding them",
+      "  --root-hash          Print only the root hash of each input",
+      "  --in-place           Write the hashed JSON back into the input files",
+      "  --hash-length <n>    Length of the hashes (default 22)",
+      "  --precision <n>      Floating point precision (default 10)",
+      "  --keep-existing      Keep existing hashes (updateExistingHashes = false),",
+      "                       not with --validate",
+      "  --no-recursive       Keep the hashes of child objects (recursive = false),",
+      "                       not with --validate",
+      "  --threads <n>        Number of files processed in parallel (default: cores)",
+      "  --quiet              Do not print the summary",
+      "  --help               Print this help");
+
+  private enum Mode {
+    HASH, ROOT_HASH, VALIDATE
+  }
+
+  // The streaming modes read while they hash or validate
+  private static final String[] PHASE_NAMES = { "hash", "read+hash", "read+validate" };
+
+  private Mode mode = Mode.HASH;
+  private boolean inPlace;
+  private int hashLength = 22;
+  private int precision = 10;
+  private boolean updateExistingHashes = true;
+  private boolean recursive = true;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private boolean quiet;
+  private int workers;
+  private final List<String> paths = new ArrayList<>();
+
+  private final InputStream in;
+  private final PrintStream out;
+  private final PrintStream err;
+
+  private JsonHashCli(InputStream in, PrintStream out, PrintStream err) {
+    this.in = in;
+    this.out = out;
+    this.err = err;
+  }
+
+  /**
+   * Runs the command line and returns the exit code.
+   */
+  public static int run(String[] args, InputStream in, PrintStream out, PrintStream err) {
+    JsonHashCli cli = new JsonHashCli(in, out, err);
+    try {
+      if (!cli.parseArguments(args)) {
+        out.println(USAGE);
+        return 0;
+      }
+      return cli.execute();
+    } catch (IllegalArgumentException e) {
+      err.println(e.getMessage());
+      err.println(USAGE);
+      return 2;
+    } catch (IOException | InterruptedException e) {
+      err.println("Error: " + e.getMessage());
+      return 2;
+    } catch (ExecutionException e) {
+      err.println("Error: " + e.getCause());
+      return 2;
+    }
+  }
+
+  // Returns false when the help was requested
+  private boolean parseArguments(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      switch (arg) {
+        case "--validate":
+          mode = Mode.VALIDATE;
+          break;
+        case "--root-hash":
+          mode = Mode.ROOT_HASH;
+          break;
+        case "--in-place":
+          inPlace = true;
+          break;
+        case "--hash-length":
+          hashLength = intArgument(args, ++i, arg);
+          break;
+        case "--precision":
+          precision = intArgument(args, ++i, arg);
+          break;
+        case "--keep-existing":
+          updateExistingHashes = false;
+          break;
+        case "--no-recursive":
+          recursive = false;
+          break;
+        case "--threads":
+          threads = Math.max(1, intArgument(args, ++i, arg));
+          break;
+        case "--quiet":
+          quiet = true;
+          break;
+        case "--help":
+        case "-h":
+          return false;
+        default:
+          if (arg.startsWith("--")) {
+            throw new IllegalArgumentException("Unknown option " + arg + ".");
+          }
+          paths.add(arg);
+      }
+    }
+    if (inPlace && mode != Mode.HASH) {
+      throw new IllegalArgumentException("--in-place can only be used when adding hashes.");
+    }
+    // The streaming validation recomputes every hash
+    if (mode == Mode.VALIDATE && (!updateExistingHashes || !recursive)) {
+      throw new IllegalArgumentException("--keep-existing and --no-recursive cannot be used with --validate.");
+    }
+    return true;
+  }
+
+  private static int intArgument(String[] args, int index, String option) {
+    if (index >= args.length) {
+      throw new IllegalArgumentException("Missing value for " + option + ".");
+    }
+    try {
+      return Integer.parseInt(args[index]);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid value \"" + args[index] + "\" for " + option + ".");
+    }
+  }
+
+  private int execute() throws IOException, InterruptedException, ExecutionException {
+    JsonHash hasher = new JsonHash(hashLength, precision, updateExistingHashes, recursive);
+    List<Path> files = new ArrayList<>();
+    boolean readStdin = paths.isEmpty();
+    for (String path : paths) {
+      if (path.equals("-")) {
+        readStdin = true;
+      } else {
+        files.addAll(jsonFiles(Paths.get(path)));
+      }
+    }
+    if (readStdin && inPlace) {
+      throw new IllegalArgumentException("--in-place cannot be used with stdin.");
+    }
+
+    long start = System.nanoTime();
+    List<Result> results = new ArrayList<>();
+    int exitCode = 0;
+    if (readStdin) {
+      exitCode = report(process(hasher, "-", null), results, exitCode);
+    }
+
+    workers = Math.min(threads, Math.max(1, files.size()));
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    try {
+      List<Future<Result>> futures = new ArrayList<>();
+      for (Path file : files) {
+        futures.add(executor.submit(() -> process(hasher, file.toString(), file)));
+      }
+      // Print in input order as soon as each result is available
+      for (Future<Result> future : futures) {
+        exitCode = report(future.get(), results, exitCode);
+      }
+    } finally {
+      executor.shutdown();
+    }
+    long elapsed = System.nanoTime() - start;
+
+    if (!quiet) {
+      printSummary(results, elapsed);
+    }
+    return exitCode;
+  }
+
+  // Prints the result, drops its output and returns the updated exit code
+  private int report(Result result, List<Result> results, int exitCode) {
+    if (result.error != null) {
+      err.println(result.name + ": " + result.error);
+      exitCode = 1;
+    } else if (result.output != null) {
+      out.println(result.output);
+    }
+    if (result.failed) {
+      exitCode = 1;
+    }
+    result.output = null;
+    results.add(result);
+    return exitCode;
+  }
+
+  private static List<Path> jsonFiles(Path path) throws IOException {
+    if (!Files.isDirectory(path)) {
+      List<Path> single = new ArrayList<>();
+      single.add(path);
+      return single;
+    }
+    try (Stream<Path> walk = Files.walk(path)) {
+      return walk.filter(Files::isRegularFile)
+          .filter(file -> file.getFileName().toString().endsWith(".json"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private Result process(JsonHash hasher, String name, Path file) {
+    Result result = new Result(name);
+    try {
+      if (mode != Mode.HASH) {
+        // The streaming APIs read the input in bounded memory
+        InputStream source = file == null ? in : Files.newInputStream(file);
+        try {
+          stream(hasher, name, new CountingInputStream(source), result);
+        } finally {
+          if (file != null) {
+            source.close();
+          }
+        }
+        return result;
+      }
+
+      long time = System.nanoTime();
+      byte[] bytes = file == null ? readAll(in) : Files.readAllBytes(file);
+      result.bytes = bytes.length;
+      result.readNanos = System.nanoTime() - time;
+
+      time = System.nanoTime();
+      Gson gson = new Gson();
+      Map<String, Object> json = gson.fromJson(new String(bytes, StandardCharsets.UTF_8), Map.class);
+      result.parseNanos = System.nanoTime() - time;
+
+      time = System.nanoTime();
+      hasher.applyTo(json, true);
+      result.hashNanos = System.nanoTime() - time;
+
+      time = System.nanoTime();
+      String hashed = gson.toJson(json);
+      if (inPlace) {
+        // Readers see either the old or the new file, never a partial one
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, hashed.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } else {
+        result.output = hashed;
+      }
+      result.writeNanos = System.nanoTime() - time;
+    } catch (Exception e) {
+      result.error = e.getMessage() == null ? e.toString() : e.getMessage();
+    }
+    return result;
+  }
+
+  // Reading is part of the hash or validate phase here
+  private void stream(JsonHash hasher, String name, CountingInputStream input, Result result) {
+    long time = System.nanoTime();
+    if (mode == Mode.VALIDATE) {
+      try {
+        hasher.validate(input);
+        result.output = name + ": OK";
+      } catch (RuntimeException e) {
+        if (e.getCause() instanceof IOException) {
+          throw e;
+        }
+        result.output = name + ": FAILED " + e.getMessage();
+        result.failed = true;
+      }
+    } else {
+      result.output = hasher.rootHash(input) + "  " + name;
+    }
+    result.hashNanos = System.nanoTime() - time;
+    result.bytes = input.count;
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    in.transferTo(bytes);
+    return bytes.toByteArray();
+  }
+
+  private void printSummary(List<Result> results, long elapsedNanos) {
+    long bytes = 0;
+    long read = 0;
+    long parse = 0;
+    long hash = 0;
+    long write = 0;
+    int failed = 0;
+    for (Result result : results) {
+      bytes += result.bytes;
+      read += result.readNanos;
+      parse += result.parseNanos;
+      hash += result.hashNanos;
+      write += result.writeNanos;
+      if (result.failed || result.error != null) {
+        failed++;
+      }
+    }
+
+    double seconds = Math.max(elapsedNanos, 1) / 1e9;
+    double megabytes = bytes / 1e6;
+    err.println(String.format(Locale.ROOT, "%d files (%.2f MB) in %.3f s: %.1f files/s, %.2f MB/s, %d failed",
+        results.size(), megabytes, seconds, results.size() / seconds, megabytes / seconds, failed));
+    err.println(String.format(Locale.ROOT,
+        "Phases (summed over %d threads): read %.3f s, parse %.3f s, %s %.3f s, write %.3f s",
+        workers, read / 1e9, parse / 1e9, PHASE_NAMES[mode.ordinal()], hash / 1e9, write / 1e9));
+  }
+
+  private static final class CountingInputStream extends FilterInputStream {
+    long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      int read = super.read(bytes, offset, length);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+
+  private static final class Result {
+    final String name;
+    String output;
+    String error;
+    boolean failed;
+    long bytes;
+    long readNanos;
+    long parseNanos;
+    long hashNanos;
+    long writeNanos;
+
+    Result(String name) {
+      this.name = name;
+    }
+  }
+}
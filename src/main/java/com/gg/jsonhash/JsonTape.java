@@ -0,0 +1,672 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Holds a parsed JSON document off-heap in a compact tape instead of a tree of
+ * maps, lists and boxed values. Every object has a fixed-width slot for its
+ * _hash that {@link #hash} fills in place.
+ *
+ * {@link #root} returns a read-only {@link Map} view for existing callers. The
+ * only supported modification is putting a _hash, which writes the slot, so
+ * {@code hasher.applyTo(tape.root(), true)} and {@link JsonHash#validate}
+ * work as with parsed maps. Values are decoded on access. Members are ordered
+ * by key, the order the hashes use.
+ *
+ * The tape is split into segments of 1 GB that are addressed by long offsets,
+ * so its size is limited only by the available direct memory. A value may
+ * span two segments.
+ *
+ * {@link #close} frees the memory right away where the JVM allows it, see
+ * {@link #freesMemoryOnClose}. Views must not be used after that and must not
+ * be used while another thread closes the tape.
+ */
+public final class JsonTape implements Closeable {
+  // Layout, with int lengths and counts and long offsets in big-endian order:
+  // object: 'O' count tableOffset hashLength hash[MAX_HASH_LENGTH], members
+  //         (keyLength key value) and a table of member offsets sorted by key
+  // array:  'A' count tableOffset, elements and a table of element offsets
+  // string: 'S' length UTF-8 bytes, number: 'D' double, 'T', 'F' and 'N'
+  static final int MAX_HASH_LENGTH = 43;
+
+  private static final byte OBJECT = 'O';
+  private static final byte ARRAY = 'A';
+  private static final byte STRING = 'S';
+  private static final byte NUMBER = 'D';
+  private static final byte TRUE = 'T';
+  private static final byte FALSE = 'F';
+  private static final byte NULL = 'N';
+
+  private static final int CONTAINER_HEADER = 1 + 4 + 8;
+  private static final int HASH_SLOT = 1 + MAX_HASH_LENGTH;
+  private static final int SEGMENT_BITS = 30;
+  private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+  // Only tests use smaller segments, to have values span segments
+  private final int segmentBits;
+  private final int segmentSize;
+  private final long segmentMask;
+  private final int initialCapacity;
+
+  // All segments but the last are full sized. The last one grows by doubling.
+  private ByteBuffer[] segments = new ByteBuffer[1];
+  private int segmentCount = 1;
+  private long size;
+  private boolean closed;
+
+  private JsonTape(int segmentBits) {
+    this.segmentBits = segmentBits;
+    this.segmentSize = 1 << segmentBits;
+    this.segmentMask = segmentSize - 1;
+    this.initialCapacity = Math.min(1 << 16, segmentSize);
+    segments[0] = ByteBuffer.allocateDirect(initialCapacity);
+  }
+
+  public static JsonTape parse(String json) {
+    return parse(new StringReader(json));
+  }
+
+  public static JsonTape parse(InputStream json) {
+    return parse(new InputStreamReader(json, StandardCharsets.UTF_8));
+  }
+
+  public static JsonTape parse(Reader json) {
+    return parse(json, SEGMENT_BITS);
+  }
+
+  static JsonTape parse(Reader json, int segmentBits) {
+    JsonTape result = new JsonTape(segmentBits);
+    try {
+      result.read(new JsonReader(json));
+    } catch (IOException | RuntimeException e) {
+      result.close();
+      throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+    }
+    return result;
+  }
+
+  /**
+   * Writes the hashes of all objects into their slots and returns the root hash.
+   */
+  public String hash(JsonHash hasher) {
+    return (String) hasher.applyTo(root(), true).get("_hash");
+  }
+
+  public Map<String, Object> root() {
+    checkOpen();
+    return new TapeObject(0);
+  }
+
+  // Bytes used by the tape
+  public long byteSize() {
+    return size;
+  }
+
+  /**
+   * Returns true when {@link #close} frees the memory right away. Otherwise
+   * it is freed when the garbage collector finds the closed tape unreachable.
+   */
+  public static boolean freesMemoryOnClose() {
+    return INVOKE_CLEANER != null;
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      for (int i = 0; i < segmentCount; i++) {
+        free(segments[i]);
+      }
+      segments = null;
+    }
+  }
+
+  // ...........................................................................
+  // Writing
+
+  private void read(JsonReader reader) throws IOException {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      throw new RuntimeException("Expected a JSON object but was " + reader.peek() + ".");
+    }
+
+    Deque<Frame> stack = new ArrayDeque<>();
+    do {
+      JsonToken token = reader.peek();
+      Frame parent = stack.peek();
+      if (token == JsonToken.NAME) {
+        String key = reader.nextName();
+        if (key.equals("_hash")) {
+          readExistingHash(reader, parent.start);
+        } else {
+          parent.add(size, key);
+          byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+          ensureCapacity(4L + bytes.length);
+          putInt(size, bytes.length);
+          putBytes(size + 4, bytes);
+          size += 4 + bytes.length;
+        }
+        continue;
+      }
+
+      if (parent != null && !parent.isObject && token != JsonToken.END_ARRAY) {
+        parent.add(size, null);
+      }
+      switch (token) {
+        case BEGIN_OBJECT:
+          reader.beginObject();
+          stack.push(new Frame(true, size));
+          writeHeader(OBJECT, CONTAINER_HEADER + HASH_SLOT);
+          break;
+        case BEGIN_ARRAY:
+          reader.beginArray();
+          stack.push(new Frame(false, size));
+          writeHeader(ARRAY, CONTAINER_HEADER);
+          break;
+        case END_OBJECT:
+          reader.endObject();
+          writeTable(stack.pop());
+          break;
+        case END_ARRAY:
+          reader.endArray();
+          writeTable(stack.pop());
+          break;
+        case STRING: {
+          byte[] bytes = reader.nextString().getBytes(StandardCharsets.UTF_8);
+          ensureCapacity(1L + 4 + bytes.length);
+          putByte(size, STRING);
+          putInt(size + 1, bytes.length);
+          putBytes(size + 5, bytes);
+          size += 5 + bytes.length;
+          break;
+        }
+        case NUMBER:
+          ensureCapacity(1 + 8);
+          putByte(size, NUMBER);
+          putLong(size + 1, Double.doubleToRawLongBits(reader.nextDouble()));
+          size += 9;
+          break;
+        case BOOLEAN:
+          ensureCapacity(1);
+          putByte(size++, reader.nextBoolean() ? TRUE : FALSE);
+          break;
+        case NULL:
+          reader.nextNull();
+          ensureCapacity(1);
+          putByte(size++, NULL);
+          break;
+        default:
+          throw new RuntimeException("Unexpected token " + token + ".");
+      }
+    } while (!stack.isEmpty());
+
+    if (reader.peek() != JsonToken.END_DOCUMENT) {
+      throw new RuntimeException("Unexpected content after the root object.");
+    }
+  }
+
+  private void readExistingHash(JsonReader reader, long object) throws IOException {
+    if (reader.peek() != JsonToken.STRING) {
+      throw new RuntimeException("Unsupported _hash: " + reader.peek() + ".");
+    }
+    writeHash(object, reader.nextString());
+  }
+
+  private void writeHeader(byte tag, int length) {
+    ensureCapacity(length);
+    putByte(size, tag);
+    for (int i = 1; i < length; i++) {
+      putByte(size + i, (byte) 0);
+    }
+    size += length;
+  }
+
+  private void writeTable(Frame frame) {
+    long[] offsets = frame.sortedOffsets();
+    ensureCapacity(8L * offsets.length);
+    putInt(frame.start + 1, offsets.length);
+    putLong(frame.start + 5, size);
+    for (long offset : offsets) {
+      putLong(size, offset);
+      size += 8;
+    }
+  }
+
+  private void writeHash(long object, String hash) {
+    if (hash.length() > MAX_HASH_LENGTH) {
+      throw new RuntimeException("Hash \"" + hash + "\" is longer than " + MAX_HASH_LENGTH + " characters.");
+    }
+    long slot = object + CONTAINER_HEADER;
+    for (int i = 0; i < hash.length(); i++) {
+      if (hash.charAt(i) >= 0x80) {
+        throw new RuntimeException("Hash \"" + hash + "\" is not ASCII.");
+      }
+      putByte(slot + 1 + i, (byte) hash.charAt(i));
+    }
+    putByte(slot, (byte) (hash.length() + 1));
+  }
+
+  private void ensureCapacity(long additional) {
+    long required = size + additional;
+    while (required > capacity()) {
+      ByteBuffer last = segments[segmentCount - 1];
+      long lastStart = (long) (segmentCount - 1) << segmentBits;
+      if (last.capacity() < segmentSize) {
+        int capacity = (int) Math.min(segmentSize, Math.max(required - lastStart, 2L * last.capacity()));
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+        grown.put(last.duplicate().position(0).limit((int) Math.max(0, Math.min(last.capacity(), size - lastStart))));
+        free(last);
+        segments[segmentCount - 1] = grown;
+      } else {
+        if (segmentCount == segments.length) {
+          segments = Arrays.copyOf(segments, segmentCount * 2);
+        }
+        segments[segmentCount++] = ByteBuffer.allocateDirect(initialCapacity);
+      }
+    }
+  }
+
+  private long capacity() {
+    return ((long) (segmentCount - 1) << segmentBits) + segments[segmentCount - 1].capacity();
+  }
+
+  // An object or array whose table is not written yet
+  private static final class Frame {
+    final boolean isObject;
+    final long start;
+    long[] offsets = new long[8];
+    List<String> keys;
+    int count;
+
+    Frame(boolean isObject, long start) {
+      this.isObject = isObject;
+      this.start = start;
+      this.keys = isObject ? new ArrayList<>() : null;
+    }
+
+    void add(long offset, String key) {
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, count * 2);
+      }
+      offsets[count++] = offset;
+      if (isObject) {
+        keys.add(key);
+      }
+    }
+
+    long[] sortedOffsets() {
+      if (!isObject) {
+        return Arrays.copyOf(offsets, count);
+      }
+      Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> keys.get(a).compareTo(keys.get(b)));
+      long[] sorted = new long[count];
+      for (int i = 0; i < count; i++) {
+        // Like Gson when parsing to maps, which the hashes are defined on
+        if (i > 0 && keys.get(order[i]).equals(keys.get(order[i - 1]))) {
+          throw new RuntimeException("duplicate key: " + keys.get(order[i]));
+        }
+        sorted[i] = offsets[order[i]];
+      }
+      return sorted;
+    }
+  }
+
+  // ...........................................................................
+  // Reading
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("The tape is closed.");
+    }
+  }
+
+  private Object valueAt(long offset) {
+    checkOpen();
+    switch (getByte(offset)) {
+      case OBJECT:
+        return new TapeObject(offset);
+      case ARRAY:
+        return new TapeList(offset);
+      case STRING:
+        return stringAt(offset + 1);
+      case NUMBER:
+        return Double.longBitsToDouble(getLong(offset + 1));
+      case TRUE:
+        return Boolean.TRUE;
+      case FALSE:
+        return Boolean.FALSE;
+      case NULL:
+        return null;
+      default:
+        throw new IllegalStateException("Corrupt tape at byte " + offset + ".");
+    }
+  }
+
+  // Reads a length-prefixed UTF-8 string
+  private String stringAt(long offset) {
+    byte[] bytes = new byte[getInt(offset)];
+    getBytes(offset + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private String hashAt(long object) {
+    long slot = object + CONTAINER_HEADER;
+    int length = getByte(slot) - 1;
+    if (length < 0) {
+      return null;
+    }
+    char[] hash = new char[length];
+    for (int i = 0; i < length; i++) {
+      hash[i] = (char) getByte(slot + 1 + i);
+    }
+    return new String(hash);
+  }
+
+  private final class TapeObject extends AbstractMap<String, Object> {
+    private final long start;
+    private String[] keys;
+
+    TapeObject(long start) {
+      this.start = start;
+    }
+
+    private String[] keys() {
+      checkOpen();
+      if (keys == null) {
+        int count = getInt(start + 1);
+        long table = getLong(start + 5);
+        keys = new String[count];
+        for (int i = 0; i < count; i++) {
+          keys[i] = stringAt(getLong(table + 8L * i));
+        }
+      }
+      return keys;
+    }
+
+    private Object memberValue(int index) {
+      long member = getLong(getLong(start + 5) + 8L * index);
+      return valueAt(member + 4 + getInt(member));
+    }
+
+    private boolean hasHash() {
+      checkOpen();
+      return getByte(start + CONTAINER_HEADER) != 0;
+    }
+
+    @Override
+    public int size() {
+      return keys().length + (hasHash() ? 1 : 0);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      if (!(key instanceof String)) {
+        return false;
+      }
+      return key.equals("_hash") ? hasHash() : Arrays.binarySearch(keys(), key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+      if (!(key instanceof String)) {
+        return null;
+      }
+      if (key.equals("_hash")) {
+        checkOpen();
+        return hashAt(start);
+      }
+      int index = Arrays.binarySearch(keys(), key);
+      return index >= 0 ? memberValue(index) : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+      if (!key.equals("_hash") || !(value instanceof String)) {
+        throw new UnsupportedOperationException("Only _hash can be written to a tape.");
+      }
+      checkOpen();
+      String previous = hashAt(start);
+      writeHash(start, (String) value);
+      return previous;
+    }
+
+    // Iterates the keys without decoding the values
+    @Override
+    public Set<String> keySet() {
+      return new AbstractSet<>() {
+        @Override
+        public int size() {
+          return TapeObject.this.size();
+        }
+
+        @Override
+        public boolean contains(Object key) {
+          return containsKey(key);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+          String[] keys = keys();
+          boolean hasHash = hasHash();
+          return new Iterator<>() {
+            private int index = hasHash ? -1 : 0;
+
+            @Override
+            public boolean hasNext() {
+              return index < keys.length;
+            }
+
+            @Override
+            public String next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              int current = index++;
+              return current < 0 ? "_hash" : keys[current];
+            }
+          };
+        }
+      };
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public int size() {
+          return TapeObject.this.size();
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          String[] keys = keys();
+          boolean hasHash = hasHash();
+          return new Iterator<>() {
+            private int index = hasHash ? -1 : 0;
+
+            @Override
+            public boolean hasNext() {
+              return index < keys.length;
+            }
+
+            @Override
+            public Entry<String, Object> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              int current = index++;
+              return current < 0 ? new SimpleImmutableEntry<>("_hash", hashAt(start))
+                  : new SimpleImmutableEntry<>(keys[current], memberValue(current));
+            }
+          };
+        }
+      };
+    }
+  }
+
+  private final class TapeList extends AbstractList<Object> implements RandomAccess {
+    private final long start;
+
+    TapeList(long start) {
+      this.start = start;
+    }
+
+    @Override
+    public int size() {
+      checkOpen();
+      return getInt(start + 1);
+    }
+
+    @Override
+    public Object get(int index) {
+      if (index < 0 || index >= size()) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size() + ".");
+      }
+      return valueAt(getLong(getLong(start + 5) + 8L * index));
+    }
+  }
+
+  // ...........................................................................
+  // Segment access
+
+  private ByteBuffer segment(long offset) {
+    return segments[(int) (offset >>> segmentBits)];
+  }
+
+  private byte getByte(long offset) {
+    return segment(offset).get((int) (offset & segmentMask));
+  }
+
+  private void putByte(long offset, byte value) {
+    segment(offset).put((int) (offset & segmentMask), value);
+  }
+
+  // Values that span two segments are read and written byte by byte
+  private int getInt(long offset) {
+    int index = (int) (offset & segmentMask);
+    if (index <= segmentSize - 4) {
+      return segment(offset).getInt(index);
+    }
+    int value = 0;
+    for (int i = 0; i < 4; i++) {
+      value = value << 8 | getByte(offset + i) & 0xFF;
+    }
+    return value;
+  }
+
+  private void putInt(long offset, int value) {
+    int index = (int) (offset & segmentMask);
+    if (index <= segmentSize - 4) {
+      segment(offset).putInt(index, value);
+      return;
+    }
+    for (int i = 0; i < 4; i++) {
+      putByte(offset + i, (byte) (value >>> 24 - 8 * i));
+    }
+  }
+
+  private long getLong(long offset) {
+    int index = (int) (offset & segmentMask);
+    if (index <= segmentSize - 8) {
+      return segment(offset).getLong(index);
+    }
+    return (long) getInt(offset) << 32 | getInt(offset + 4) & 0xFFFFFFFFL;
+  }
+
+  private void putLong(long offset, long value) {
+    int index = (int) (offset & segmentMask);
+    if (index <= segmentSize - 8) {
+      segment(offset).putLong(index, value);
+      return;
+    }
+    putInt(offset, (int) (value >>> 32));
+    putInt(offset + 4, (int) value);
+  }
+
+  private void getBytes(long offset, byte[] bytes) {
+    for (int done = 0; done < bytes.length;) {
+      int index = (int) (offset + done & segmentMask);
+      int length = Math.min(bytes.length - done, segmentSize - index);
+      segment(offset + done).get(index, bytes, done, length);
+      done += length;
+    }
+  }
+
+  private void putBytes(long offset, byte[] bytes) {
+    for (int done = 0; done < bytes.length;) {
+      int index = (int) (offset + done & segmentMask);
+      int length = Math.min(bytes.length - done, segmentSize - index);
+      segment(offset + done).put(index, bytes, done, length);
+      done += length;
+    }
+  }
+
+  // ...........................................................................
+  // Releasing memory
+
+  // Direct buffers are otherwise freed only when they are garbage collected.
+  // On JDK 17, sun.misc.Unsafe.invokeCleaner is the only way to free them right
+  // away. The Foreign Memory API would do so with a public API, but it is an
+  // incubator module on JDK 17 (JEP 412) that needs --add-modules. Without
+  // access to Unsafe, freesMemoryOnClose returns false.
+  private static MethodHandle invokeCleaner() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      return MethodHandles.lookup()
+          .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+          .bindTo(field.get(null));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static void free(ByteBuffer buffer) {
+    if (INVOKE_CLEANER == null) {
+      return;
+    }
+    try {
+      INVOKE_CLEANER.invokeExact(buffer);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from long keys to non-negative int values with linear
+ * probing and backward-shift deletion.
+ */
+final class LongIntHashTable {
+  static final int MISSING = -1;
+
+  private long[] keys;
+  private int[] values;
+  private int size;
+
+  LongIntHashTable() {
+    this(16);
+  }
+
+  LongIntHashTable(int capacity) {
+    int tableSize = Integer.highestOneBit(Math.max(4, capacity * 2 - 1));
+    keys = new long[tableSize];
+    values = new int[tableSize];
+    Arrays.fill(values, MISSING);
+  }
+
+  int get(long key) {
+    int mask = keys.length - 1;
+    for (int slot = slot(key, mask); values[slot] != MISSING; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+    }
+    return MISSING;
+  }
+
+  void put(long key, int value) {
+    if ((size + 1) * 2 > keys.length) {
+      resize(keys.length * 2);
+    }
+    int mask = keys.length - 1;
+    int slot = slot(key, mask);
+    while (values[slot] != MISSING) {
+      if (keys[slot] == key) {
+        values[slot] = value;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    size++;
+  }
+
+  void remove(long key) {
+    int mask = keys.length - 1;
+    int slot = slot(key, mask);
+    while (values[slot] != MISSING && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    if (values[slot] == MISSING) {
+      return;
+    }
+
+    // Shift following entries of the probe sequence back into the gap
+    int gap = slot;
+    for (int next = (gap + 1) & mask; values[next] != MISSING; next = (next + 1) & mask) {
+      int home = slot(keys[next], mask);
+      if (((next - home) & mask) >= ((next - gap) & mask)) {
+        keys[gap] = keys[next];
+        values[gap] = values[next];
+        gap = next;
+      }
+    }
+    values[gap] = MISSING;
+    size--;
+  }
+
+  int size() {
+    return size;
+  }
+
+  private void resize(int tableSize) {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    keys = new long[tableSize];
+    values = new int[tableSize];
+    Arrays.fill(values, MISSING);
+    size = 0;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldValues[i] != MISSING) {
+        put(oldKeys[i], oldValues[i]);
+      }
+    }
+  }
+
+  private static int slot(long key, int mask) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+  }
+}
@@ -0,0 +1,228 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Hashes a large array as a binary Merkle tree over fixed-size chunks.
+ *
+ * Each leaf is the hash of one chunk, encoded like an inline array prefixed
+ * with "l", e.g. {@code ["l","a",1,"<objectHash>"]}. Each parent is the hash
+ * of {@code ["n","<left>","<right>"]}. The prefixes keep a chunk from being
+ * passed off as an inner node in a proof. An odd node at the end of a level is
+ * promoted unchanged. Chunks can be rehashed individually and proven against
+ * the root.
+ */
+@SuppressWarnings("unchecked")
+public final class MerkleList {
+  static final int PARALLEL_CHUNK_COUNT = 8;
+
+  private final JsonHash hasher;
+  private final List<Object> items;
+  private final int chunkSize;
+  private final boolean annotate;
+  private final List<String[]> levels = new ArrayList<>();
+
+  public static MerkleList of(JsonHash hasher, List<?> list, int chunkSize) {
+    return of(hasher, list, chunkSize, false);
+  }
+
+  /**
+   * Hashes the chunks of the list in parallel when {@code parallel} is true.
+   * The list is copied without the nulls and unsupported items that hashing
+   * drops, so chunks and indices refer to the remaining items. Later changes
+   * go through {@link #set}.
+   */
+  public static MerkleList of(JsonHash hasher, List<?> list, int chunkSize, boolean parallel) {
+    return new MerkleList(hasher, JsonHash.hashableItems(list), chunkSize, parallel, false);
+  }
+
+  // The list must not contain items that hashing drops
+  MerkleList(JsonHash hasher, List<?> list, int chunkSize, boolean parallel, boolean annotate) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Chunk size must be positive but was " + chunkSize + ".");
+    }
+    this.hasher = hasher;
+    this.items = (List<Object>) list;
+    this.chunkSize = chunkSize;
+    this.annotate = annotate;
+
+    String[] leaves = new String[(list.size() + chunkSize - 1) / chunkSize];
+    IntStream chunks = IntStream.range(0, leaves.length);
+    (parallel ? chunks.parallel() : chunks).forEach(chunk -> leaves[chunk] = chunkHash(chunkItems(chunk)));
+    levels.add(leaves);
+    while (levels.get(levels.size() - 1).length > 1) {
+      String[] children = levels.get(levels.size() - 1);
+      String[] parents = new String[(children.length + 1) / 2];
+      for (int i = 0; i < parents.length; i++) {
+        parents[i] = parentHash(children, i);
+      }
+      levels.add(parents);
+    }
+  }
+
+  public String rootHash() {
+    String[] top = levels.get(levels.size() - 1);
+    return top.length == 0 ? hasher.hashFlattenedList(Collections.emptyList()) : top[0];
+  }
+
+  public int chunkCount() {
+    return levels.get(0).length;
+  }
+
+  public String chunkHash(int chunk) {
+    return levels.get(0)[chunk];
+  }
+
+  public List<Object> chunkItems(int chunk) {
+    int from = chunk * chunkSize;
+    return Collections.unmodifiableList(items.subList(from, Math.min(from + chunkSize, items.size())));
+  }
+
+  /**
+   * Replaces one item and rehashes only its chunk and the chunk's ancestors.
+   */
+  public void set(int index, Object value) {
+    if (!JsonHash.isHashableItem(value)) {
+      throw new IllegalArgumentException("Unsupported item: " + value + ".");
+    }
+    items.set(index, value);
+    int node = index / chunkSize;
+    levels.get(0)[node] = chunkHash(chunkItems(node));
+    for (int level = 1; level < levels.size(); level++) {
+      node /= 2;
+      levels.get(level)[node] = parentHash(levels.get(level - 1), node);
+    }
+  }
+
+  /**
+   * Returns the sibling hashes needed to recompute the root from one chunk.
+   */
+  public List<ProofStep> proof(int chunk) {
+    List<ProofStep> proof = new ArrayList<>();
+    int node = chunk;
+    for (int level = 0; level < levels.size() - 1; level++) {
+      String[] nodes = levels.get(level);
+      int sibling = node ^ 1;
+      if (sibling < nodes.length) {
+        proof.add(new ProofStep(nodes[sibling], sibling < node));
+      }
+      node /= 2;
+    }
+    return proof;
+  }
+
+  public static boolean verify(JsonHash hasher, List<?> chunkItems, List<ProofStep> proof, String rootHash) {
+    String hash = leafHash(hasher, hasher.hashList(chunkItems, false));
+    for (ProofStep step : proof) {
+      hash = step.isLeft() ? combine(hasher, step.getHash(), hash) : combine(hasher, hash, step.getHash());
+    }
+    return hash.equals(rootHash);
+  }
+
+  private String chunkHash(List<Object> chunk) {
+    return leafHash(hasher, hasher.hashList(chunk, annotate));
+  }
+
+  private static String leafHash(JsonHash hasher, List<Object> flattenedChunk) {
+    List<Object> leaf = new ArrayList<>(flattenedChunk.size() + 1);
+    leaf.add("l");
+    leaf.addAll(flattenedChunk);
+    return hasher.hashFlattenedList(leaf);
+  }
+
+  private String parentHash(String[] children, int parent) {
+    int left = parent * 2;
+    return left + 1 < children.length ? combine(hasher, children[left], children[left + 1]) : children[left];
+  }
+
+  private static String combine(JsonHash hasher, String left, String right) {
+    return hasher.hashFlattenedList(Arrays.asList("n", left, right));
+  }
+
+  /**
+   * Computes the same contribution as {@link JsonHash#listContribution} from
+   * flattened items that arrive one by one. Once the array is longer than a
+   * chunk, full chunks are hashed right away and only the current chunk and
+   * one pending hash per tree level are kept. Without chunking, i.e. a chunk
+   * size of zero, all items are kept.
+   */
+  static final class Builder {
+    private final JsonHash hasher;
+    private final int chunkSize;
+    private final List<Object> chunk = new ArrayList<>();
+    // Roots of complete subtrees, the lowest level last
+    private final List<String> pending = new ArrayList<>();
+    private final List<Integer> pendingLevels = new ArrayList<>();
+    private boolean chunked;
+
+    Builder(JsonHash hasher, int chunkSize) {
+      this.hasher = hasher;
+      this.chunkSize = chunkSize;
+    }
+
+    void add(Object flattenedItem) {
+      if (chunkSize > 0 && chunk.size() == chunkSize) {
+        chunked = true;
+        pushLeaf();
+      }
+      chunk.add(flattenedItem);
+    }
+
+    // Returns the inline items of a short array or the Merkle root
+    Object contribution() {
+      if (!chunked) {
+        return chunk;
+      }
+      pushLeaf();
+      // Odd nodes are promoted, so the remaining subtrees fold from the right
+      String hash = pending.remove(pending.size() - 1);
+      while (!pending.isEmpty()) {
+        hash = combine(hasher, pending.remove(pending.size() - 1), hash);
+      }
+      return hash;
+    }
+
+    private void pushLeaf() {
+      String hash = leafHash(hasher, chunk);
+      chunk.clear();
+      int level = 0;
+      while (!pendingLevels.isEmpty() && pendingLevels.get(pendingLevels.size() - 1) == level) {
+        pendingLevels.remove(pendingLevels.size() - 1);
+        hash = combine(hasher, pending.remove(pending.size() - 1), hash);
+        level++;
+      }
+      pending.add(hash);
+      pendingLevels.add(level);
+    }
+  }
+
+  public static final class ProofStep {
+    private final String hash;
+    private final boolean left;
+
+    public ProofStep(String hash, boolean left) {
+      this.hash = hash;
+      this.left = left;
+    }
+
+    public String getHash() {
+      return hash;
+    }
+
+    /**
+     * True when the sibling is the left child of the parent.
+     */
+    public boolean isLeft() {
+      return left;
+    }
+  }
+}
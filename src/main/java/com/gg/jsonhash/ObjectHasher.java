@@ -0,0 +1,254 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hashes instances of one record or bean class without converting them to a
+ * Map first. The properties are the record components or the public getters.
+ * They are sorted once when the hasher is generated and read through
+ * MethodHandles, so primitive int, double and boolean values are not boxed.
+ * The canonical form is written straight into the digest.
+ *
+ * The hash equals the hash of the Map representation of the object, i.e. a
+ * Map from property name to value in which nested records and beans are Maps
+ * too and null values are omitted.
+ */
+@SuppressWarnings("unchecked")
+public final class ObjectHasher<T> {
+  private final JsonHash hasher;
+  private final Class<T> type;
+  private final PropertyWriter[] writers;
+
+  ObjectHasher(JsonHash hasher, Class<T> type) {
+    this.hasher = hasher;
+    this.type = type;
+
+    List<Property> properties = properties(type);
+    properties.sort(Comparator.comparing(property -> property.name));
+    writers = new PropertyWriter[properties.size()];
+    for (int i = 0; i < properties.size(); i++) {
+      writers[i] = writer(properties.get(i).getter, "\"" + properties.get(i).name + "\":");
+    }
+  }
+
+  public String hash(T value) {
+    CanonicalWriter writer = CanonicalWriter.acquire();
+    try {
+      writer.write('{');
+      boolean first = true;
+      for (PropertyWriter propertyWriter : writers) {
+        if (propertyWriter.write(writer, value, first)) {
+          first = false;
+        }
+      }
+      writer.write('}');
+      return writer.finish(hasher.getHashLength());
+    } finally {
+      CanonicalWriter.release(writer);
+    }
+  }
+
+  private static List<Property> properties(Class<?> type) {
+    List<Property> properties = new ArrayList<>();
+    if (type.isRecord()) {
+      for (RecordComponent component : type.getRecordComponents()) {
+        properties.add(new Property(component.getName(), component.getAccessor()));
+      }
+      return properties;
+    }
+
+    // One getter per name. Like java.beans.Introspector, isX wins over getX.
+    Map<String, Method> getters = new HashMap<>();
+    for (Method method : type.getMethods()) {
+      if (Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 0
+          || method.getDeclaringClass() == Object.class || method.isBridge()) {
+        continue;
+      }
+      String name = method.getName();
+      if (name.startsWith("get") && name.length() > 3 && method.getReturnType() != void.class) {
+        getters.putIfAbsent(decapitalize(name.substring(3)), method);
+      } else if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) {
+        getters.put(decapitalize(name.substring(2)), method);
+      }
+    }
+    for (Map.Entry<String, Method> getter : getters.entrySet()) {
+      properties.add(new Property(getter.getKey(), getter.getValue()));
+    }
+    return properties;
+  }
+
+  // Same rule as java.beans.Introspector.decapitalize
+  private static String decapitalize(String name) {
+    if (name.length() > 1 && Character.isUpperCase(name.charAt(1)) && Character.isUpperCase(name.charAt(0))) {
+      return name;
+    }
+    return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+  }
+
+  private PropertyWriter writer(Method getter, String encodedKey) {
+    MethodHandle handle;
+    try {
+      getter.setAccessible(true);
+      handle = MethodHandles.lookup().unreflect(getter);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      throw new RuntimeException("Cannot access " + getter + ".", e);
+    }
+
+    Class<?> returnType = getter.getReturnType();
+    int precision = hasher.getFloatingPointPrecision();
+    if (returnType == int.class) {
+      MethodHandle intGetter = handle.asType(MethodType.methodType(int.class, Object.class));
+      return (writer, bean, first) -> {
+        writeKey(writer, encodedKey, first);
+        writer.writeInt(invokeInt(intGetter, bean));
+        return true;
+      };
+    } else if (returnType == double.class) {
+      MethodHandle doubleGetter = handle.asType(MethodType.methodType(double.class, Object.class));
+      return (writer, bean, first) -> {
+        writeKey(writer, encodedKey, first);
+        writer.writeTruncated(invokeDouble(doubleGetter, bean), precision);
+        return true;
+      };
+    } else if (returnType == boolean.class) {
+      MethodHandle booleanGetter = handle.asType(MethodType.methodType(boolean.class, Object.class));
+      return (writer, bean, first) -> {
+        writeKey(writer, encodedKey, first);
+        writer.writeRaw(invokeBoolean(booleanGetter, bean) ? "true" : "false");
+        return true;
+      };
+    } else if (returnType.isPrimitive()) {
+      throw new RuntimeException("Unsupported type: " + returnType);
+    }
+
+    MethodHandle objectGetter = handle.asType(MethodType.methodType(Object.class, Object.class));
+    return (writer, bean, first) -> {
+      Object value = invoke(objectGetter, bean);
+      if (value == null) {
+        return false;
+      }
+      writeKey(writer, encodedKey, first);
+      writer.writeValue(contribution(value));
+      return true;
+    };
+  }
+
+  private static void writeKey(CanonicalWriter writer, String encodedKey, boolean first) {
+    if (!first) {
+      writer.write(',');
+    }
+    writer.writeRaw(encodedKey);
+  }
+
+  private Object contribution(Object value) {
+    if (value instanceof Map) {
+      return hasher.childHash((Map<String, Object>) value, false);
+    } else if (value instanceof List) {
+      return hasher.listContribution(withHashedObjects((List<?>) value), false);
+    } else if (JsonHash.isBasicType(value)) {
+      return JsonHash.convertBasicType(value, hasher.getFloatingPointPrecision());
+    } else if (isObject(value)) {
+      return hasher.objectHasher((Class<Object>) value.getClass()).hash(value);
+    } else {
+      throw new RuntimeException("Unsupported type: " + value.getClass());
+    }
+  }
+
+  // Replaces records and beans by their hashes, which is what they contribute
+  // to a list as Maps.
+  private List<Object> withHashedObjects(List<?> list) {
+    List<Object> items = new ArrayList<>(list.size());
+    for (Object element : list) {
+      if (element instanceof List) {
+        items.add(withHashedObjects((List<?>) element));
+      } else if (element != null && !JsonHash.isBasicType(element) && isObject(element)) {
+        items.add(hasher.objectHasher((Class<Object>) element.getClass()).hash(element));
+      } else {
+        items.add(element);
+      }
+    }
+    return items;
+  }
+
+  private static boolean isObject(Object value) {
+    Class<?> type = value.getClass();
+    return type.isRecord() || !(type.isArray() || type.isEnum() || type.getName().startsWith("java."));
+  }
+
+  private static Object invoke(MethodHandle getter, Object bean) {
+    try {
+      return (Object) getter.invokeExact(bean);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static int invokeInt(MethodHandle getter, Object bean) {
+    try {
+      return (int) getter.invokeExact(bean);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static double invokeDouble(MethodHandle getter, Object bean) {
+    try {
+      return (double) getter.invokeExact(bean);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static boolean invokeBoolean(MethodHandle getter, Object bean) {
+    try {
+      return (boolean) getter.invokeExact(bean);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ObjectHasher[" + type.getName() + "]";
+  }
+
+  @FunctionalInterface
+  private interface PropertyWriter {
+    // Writes the key and value and returns false when the property is null
+    // and therefore omitted
+    boolean write(CanonicalWriter writer, Object bean, boolean first);
+  }
+
+  private static final class Property {
+    final String name;
+    final Method getter;
+
+    Property(String name, Method getter) {
+      this.name = name;
+      this.getter = getter;
+    }
+  }
+}
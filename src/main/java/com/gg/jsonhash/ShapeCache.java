@@ -0,0 +1,59 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the sorted key order and the encoded keys of the object shapes a
+ * hasher has seen. Once full, new shapes are computed but not remembered.
+ */
+final class ShapeCache {
+  static final int DEFAULT_MAX_SIZE = 1024;
+
+  private final int maxSize;
+  private final Map<Set<String>, Shape> shapes = new ConcurrentHashMap<>();
+
+  ShapeCache(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  Shape shapeOf(Set<String> keySet) {
+    Shape shape = shapes.get(keySet);
+    if (shape == null) {
+      shape = new Shape(keySet);
+      if (shapes.size() < maxSize) {
+        shapes.putIfAbsent(new HashSet<>(keySet), shape);
+      }
+    }
+    return shape;
+  }
+
+  int size() {
+    return shapes.size();
+  }
+
+  static final class Shape {
+    // Sorted keys without "_hash"
+    final String[] keys;
+    // "\"key\":" fragments, prefixed with a comma for all but the first key
+    final String[] encodedKeys;
+
+    Shape(Set<String> keySet) {
+      String[] sorted = keySet.stream().filter(key -> !key.equals("_hash")).toArray(String[]::new);
+      Arrays.sort(sorted);
+      keys = sorted;
+      encodedKeys = new String[sorted.length];
+      for (int i = 0; i < sorted.length; i++) {
+        encodedKeys[i] = (i == 0 ? "\"" : ",\"") + sorted[i] + "\":";
+      }
+    }
+  }
+}
@@ -0,0 +1,323 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Validates hashed JSON while reading it. Each object's _hash is checked as
+ * soon as the object closes and the first missing or wrong hash aborts the
+ * validation with its path and the byte offset of the object.
+ *
+ * Memory is bounded per open container, not by the nesting depth alone. An
+ * open object keeps one value per member, where child objects are reduced to
+ * their hash. An open array keeps its items, unless arrayChunkSize is set:
+ * then full chunks are hashed as they arrive and only the current chunk and
+ * one hash per Merkle level are kept. Strings are read as a whole.
+ */
+final class StreamingValidator {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final JsonHash hasher;
+  private final InputStream in;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private int limit;
+  private long bufferOffset;
+  private final Deque<Frame> stack = new ArrayDeque<>();
+
+  StreamingValidator(JsonHash hasher, InputStream in) {
+    this.hasher = hasher;
+    this.in = in;
+  }
+
+  void validate() throws IOException {
+    if (nextNonWhitespace() != '{') {
+      throw error("Expected a JSON object");
+    }
+    stack.push(new Frame(true, "", offset() - 1));
+
+    while (!stack.isEmpty()) {
+      Frame frame = stack.peek();
+      int c = nextNonWhitespace();
+
+      boolean isClosing = c == (frame.isObject ? '}' : ']');
+      if (frame.count > 0 && !isClosing) {
+        if (c != ',') {
+          throw error("Expected ',' or '" + (frame.isObject ? '}' : ']') + "'");
+        }
+        c = nextNonWhitespace();
+      } else if (isClosing) {
+        close(stack.pop());
+        continue;
+      }
+
+      String key = null;
+      if (frame.isObject) {
+        if (c != '"') {
+          throw error("Expected a name");
+        }
+        key = readString();
+        if (nextNonWhitespace() != ':') {
+          throw error("Expected ':'");
+        }
+        c = nextNonWhitespace();
+      }
+
+      String path = frame.path + "/" + (frame.isObject ? key : String.valueOf(frame.count));
+      if (c == '{' || c == '[') {
+        Frame child = new Frame(c == '{', path, offset() - 1);
+        child.key = key;
+        stack.push(child);
+      } else {
+        frame.add(key, readScalar(c));
+      }
+    }
+
+    if (nextNonWhitespace() != -1) {
+      throw error("Unexpected content after the root object");
+    }
+  }
+
+  private void close(Frame frame) {
+    Object value;
+    if (frame.isObject) {
+      String expectedHash = hasher.hashCanonical(frame.members);
+      String pathHint = frame.path.isEmpty() ? "" : " at " + frame.path;
+      String offsetHint = " (object at byte " + frame.startOffset + ")";
+      if (frame.embeddedHash == null) {
+        throw new RuntimeException("Hash" + pathHint + " is missing." + offsetHint);
+      }
+      if (!expectedHash.equals(frame.embeddedHash)) {
+        throw new RuntimeException("Hash" + pathHint + " \"" + frame.embeddedHash + "\" is wrong. Should be \""
+            + expectedHash + "\"." + offsetHint);
+      }
+      value = expectedHash;
+    } else {
+      value = frame.items.contribution();
+    }
+
+    Frame parent = stack.peek();
+    if (parent != null) {
+      parent.add(frame.key, value);
+    }
+  }
+
+  private Object readScalar(int c) throws IOException {
+    if (c == '"') {
+      return readString();
+    } else if (c == '-' || (c >= '0' && c <= '9')) {
+      return readNumber(c);
+    } else if (c == 't') {
+      expectLiteral("rue");
+      return Boolean.TRUE;
+    } else if (c == 'f') {
+      expectLiteral("alse");
+      return Boolean.FALSE;
+    } else if (c == 'n') {
+      expectLiteral("ull");
+      return null;
+    }
+    throw error("Unexpected character");
+  }
+
+  private String readString() throws IOException {
+    StringBuilder result = new StringBuilder();
+    while (true) {
+      int c = next();
+      if (c == '"') {
+        return result.toString();
+      } else if (c == '\\') {
+        readEscape(result);
+      } else if (c < 0) {
+        throw error("Unterminated string");
+      } else if (c < 0x80) {
+        result.append((char) c);
+      } else {
+        readUtf8(result, c);
+      }
+    }
+  }
+
+  private void readEscape(StringBuilder result) throws IOException {
+    int c = next();
+    switch (c) {
+      case '"':
+      case '\\':
+      case '/':
+        result.append((char) c);
+        break;
+      case 'b':
+        result.append('\b');
+        break;
+      case 'f':
+        result.append('\f');
+        break;
+      case 'n':
+        result.append('\n');
+        break;
+      case 'r':
+        result.append('\r');
+        break;
+      case 't':
+        result.append('\t');
+        break;
+      case 'u': {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(next(), 16);
+          if (digit < 0) {
+            throw error("Invalid unicode escape");
+          }
+          value = value * 16 + digit;
+        }
+        result.append((char) value);
+        break;
+      }
+      default:
+        throw error("Invalid escape sequence");
+    }
+  }
+
+  // Rejects stray continuation bytes, lead bytes above 0xF4, overlong forms,
+  // encoded surrogates and code points above U+10FFFF
+  private void readUtf8(StringBuilder result, int first) throws IOException {
+    int length = first >= 0xF5 ? -1 : first >= 0xF0 ? 3 : first >= 0xE0 ? 2 : first >= 0xC2 ? 1 : -1;
+    if (length < 0) {
+      throw error("Invalid UTF-8 byte");
+    }
+    long start = offset() - 1;
+    int codePoint = first & (0x3F >> length);
+    for (int i = 0; i < length; i++) {
+      int c = next();
+      if ((c & 0xC0) != 0x80) {
+        throw error("Invalid UTF-8 byte");
+      }
+      codePoint = (codePoint << 6) | (c & 0x3F);
+    }
+    int min = length == 1 ? 0x80 : length == 2 ? 0x800 : 0x10000;
+    if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+        || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+      throw error("Invalid UTF-8 byte", start);
+    }
+    result.appendCodePoint(codePoint);
+  }
+
+  private Double readNumber(int first) throws IOException {
+    StringBuilder number = new StringBuilder().append((char) first);
+    while (true) {
+      int c = peek();
+      if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+        number.append((char) next());
+      } else {
+        break;
+      }
+    }
+    try {
+      return Double.parseDouble(number.toString());
+    } catch (NumberFormatException e) {
+      throw error("Invalid number \"" + number + "\"");
+    }
+  }
+
+  private void expectLiteral(String rest) throws IOException {
+    for (int i = 0; i < rest.length(); i++) {
+      if (next() != rest.charAt(i)) {
+        throw error("Invalid literal");
+      }
+    }
+  }
+
+  private int nextNonWhitespace() throws IOException {
+    int c;
+    do {
+      c = next();
+    } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+    return c;
+  }
+
+  private int next() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position++] & 0xFF;
+  }
+
+  private int peek() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position] & 0xFF;
+  }
+
+  private boolean fill() throws IOException {
+    bufferOffset += limit;
+    position = 0;
+    limit = 0;
+    int read = in.read(buffer);
+    if (read <= 0) {
+      return false;
+    }
+    limit = read;
+    return true;
+  }
+
+  // Offset of the next byte
+  private long offset() {
+    return bufferOffset + position;
+  }
+
+  private RuntimeException error(String message) {
+    return error(message, Math.max(0, offset() - 1));
+  }
+
+  private RuntimeException error(String message, long offset) {
+    return new RuntimeException(message + " at byte " + offset + ".");
+  }
+
+  private final class Frame {
+    final boolean isObject;
+    final String path;
+    final long startOffset;
+    final Map<String, Object> members;
+    final MerkleList.Builder items;
+    String key;
+    String embeddedHash;
+    int count;
+
+    Frame(boolean isObject, String path, long startOffset) {
+      this.isObject = isObject;
+      this.path = path;
+      this.startOffset = startOffset;
+      this.members = isObject ? new TreeMap<>() : null;
+      this.items = isObject ? null : new MerkleList.Builder(hasher, hasher.getArrayChunkSize());
+    }
+
+    void add(String key, Object value) {
+      count++;
+      if (!isObject) {
+        if (value != null) {
+          items.add(JsonHash.isBasicType(value) ? convert(value) : value);
+        }
+      } else if (key.equals("_hash")) {
+        embeddedHash = String.valueOf(value);
+      } else if (value == null) {
+        throw new RuntimeException("Unsupported type: null at " + path + "/" + key + ".");
+      } else {
+        members.put(key, JsonHash.isBasicType(value) ? convert(value) : value);
+      }
+    }
+
+    private Object convert(Object value) {
+      return JsonHash.convertBasicType(value, hasher.getFloatingPointPrecision());
+    }
+  }
+}
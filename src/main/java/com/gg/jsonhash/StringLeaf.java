@@ -0,0 +1,138 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A string value that is fed into the parent's digest in chunks, straight
+ * from its source, instead of being copied into the canonical string. Use it
+ * in place of a String for large values like attachments or logs. The hash is
+ * the same as for the equivalent String.
+ *
+ * Leaves created by {@link #ofReader} and {@link #ofFile} are lazy: the source
+ * is opened and read each time the leaf is hashed, and it is never held in
+ * memory as a whole. {@link #toString} materializes the value, e.g. for
+ * {@link JsonHash#jsonString}.
+ *
+ * Leaves are anonymous subclasses, which a plain Gson drops. Serialize
+ * documents containing leaves with a Gson built by {@link #registerWith}.
+ */
+public abstract class StringLeaf {
+  @FunctionalInterface
+  public interface ReaderSource {
+    Reader open() throws IOException;
+  }
+
+  StringLeaf() {
+  }
+
+  public static StringLeaf of(CharSequence chars) {
+    return new StringLeaf() {
+      @Override
+      void writeTo(CanonicalWriter writer) {
+        writer.writeEscaped(chars);
+      }
+
+      @Override
+      public String toString() {
+        return chars.toString();
+      }
+    };
+  }
+
+  /**
+   * Reads the string from UTF-8 bytes. Malformed input is replaced as by
+   * {@code new String(bytes, offset, length, UTF_8)}.
+   */
+  public static StringLeaf ofUtf8(byte[] bytes, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > bytes.length) {
+      throw new IndexOutOfBoundsException(
+          "Slice " + offset + ".." + (offset + length) + " is outside of " + bytes.length + " bytes.");
+    }
+    return new StringLeaf() {
+      @Override
+      void writeTo(CanonicalWriter writer) throws IOException {
+        writer.writeEscapedUtf8(bytes, offset, length);
+      }
+
+      @Override
+      public String toString() {
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+      }
+    };
+  }
+
+  public static StringLeaf ofReader(ReaderSource source) {
+    return new StringLeaf() {
+      @Override
+      void writeTo(CanonicalWriter writer) throws IOException {
+        try (Reader reader = source.open()) {
+          writer.writeEscaped(reader);
+        }
+      }
+
+      @Override
+      public String toString() {
+        try (Reader reader = source.open()) {
+          StringWriter result = new StringWriter();
+          reader.transferTo(result);
+          return result.toString();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+  }
+
+  // Reads the file as UTF-8 whenever the leaf is hashed
+  public static StringLeaf ofFile(Path file) {
+    return ofReader(() -> new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds an adapter that writes leaves as JSON strings and reads strings as
+   * leaves. The value is materialized while it is written.
+   */
+  public static GsonBuilder registerWith(GsonBuilder builder) {
+    return builder.registerTypeHierarchyAdapter(StringLeaf.class, new GsonAdapter());
+  }
+
+  // Writes the escaped characters without the surrounding quotes
+  abstract void writeTo(CanonicalWriter writer) throws IOException;
+
+  private static final class GsonAdapter extends TypeAdapter<StringLeaf> {
+    @Override
+    public void write(JsonWriter out, StringLeaf leaf) throws IOException {
+      if (leaf == null) {
+        out.nullValue();
+      } else {
+        out.value(leaf.toString());
+      }
+    }
+
+    @Override
+    public StringLeaf read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      return of(in.nextString());
+    }
+  }
+}
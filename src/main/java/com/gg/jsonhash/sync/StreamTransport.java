@@ -0,0 +1,81 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash.sync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exchanges length-prefixed UTF-8 messages over a pair of streams, e.g. pipes
+ * or a socket. The server side is {@link SyncServer#serve}.
+ *
+ * The length prefix comes from the peer, so messages with a negative length
+ * or more than maxMessageBytes bytes are rejected before they are read.
+ */
+public class StreamTransport implements SyncTransport, Closeable {
+  public static final int DEFAULT_MAX_MESSAGE_BYTES = 1 << 28;
+
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private final int maxMessageBytes;
+
+  public StreamTransport(InputStream in, OutputStream out) {
+    this(in, out, DEFAULT_MAX_MESSAGE_BYTES);
+  }
+
+  public StreamTransport(InputStream in, OutputStream out, int maxMessageBytes) {
+    this.in = new DataInputStream(new BufferedInputStream(in));
+    this.out = new DataOutputStream(new BufferedOutputStream(out));
+    this.maxMessageBytes = maxMessageBytes;
+  }
+
+  @Override
+  public synchronized String exchange(String request) throws IOException {
+    writeMessage(out, request);
+    String response = readMessage(in, maxMessageBytes);
+    if (response == null) {
+      throw new EOFException("Connection closed before the response was received.");
+    }
+    return response;
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+    in.close();
+  }
+
+  static void writeMessage(DataOutputStream out, String message) throws IOException {
+    byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+    out.flush();
+  }
+
+  // Returns null at the end of the stream
+  static String readMessage(DataInputStream in, int maxMessageBytes) throws IOException {
+    int length;
+    try {
+      length = in.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    if (length < 0 || length > maxMessageBytes) {
+      throw new IOException("Invalid message length " + length + ", the maximum is " + maxMessageBytes + " bytes.");
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
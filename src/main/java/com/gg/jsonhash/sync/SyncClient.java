@@ -0,0 +1,224 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash.sync;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.gg.jsonhash.JsonHash;
+import com.google.gson.Gson;
+
+/**
+ * Makes a local hashed document equal to the document of a
+ * {@link SyncServer}. Starting at the root, the client requests the digests
+ * of the children of all mismatching objects and arrays of one level in a
+ * single round trip. It descends only into children whose digests differ and
+ * copies the values that cannot be descended into.
+ *
+ * The local _hash values are trusted, i.e. the local document must have been
+ * hashed after its last change. The remote _hash of a changed object is
+ * written bottom-up once the whole sync succeeded. If a round trip fails, the
+ * objects changed so far keep their old _hash, which differs from the remote
+ * one, so syncing again descends into them and completes the update.
+ */
+@SuppressWarnings("unchecked")
+public class SyncClient {
+  private final JsonHash hasher;
+  private final SyncTransport transport;
+  private final Gson gson = new Gson();
+
+  private long bytesTransferred;
+  private int roundTrips;
+
+  public SyncClient(JsonHash hasher, SyncTransport transport) {
+    this.hasher = hasher;
+    this.transport = transport;
+  }
+
+  /**
+   * Updates the local document in place and returns what was transferred.
+   */
+  public synchronized SyncResult sync(Map<String, Object> local) throws IOException {
+    bytesTransferred = 0;
+    roundTrips = 0;
+    int transferredValues = 0;
+
+    Map<String, Object> root = request("root", null);
+    String remoteHash = (String) root.get("hash");
+    long fullDocumentBytes = ((Number) root.get("size")).longValue();
+
+    List<Node> level = new ArrayList<>();
+    if (!remoteHash.equals(SyncServer.digest(hasher, local))) {
+      level.add(new Node(local, new ArrayList<>(), remoteHash));
+    }
+
+    // Nodes in breadth-first order, so children come after their parents
+    List<Node> visited = new ArrayList<>();
+    while (!level.isEmpty()) {
+      visited.addAll(level);
+      List<Object> children = (List<Object>) request("children", paths(level)).get("children");
+      List<Node> nextLevel = new ArrayList<>();
+      List<Fetch> fetches = new ArrayList<>();
+      for (int i = 0; i < level.size(); i++) {
+        Node node = level.get(i);
+        if (node.container instanceof Map) {
+          compareObject(node, (Map<String, String>) children.get(i), nextLevel, fetches);
+        } else {
+          compareArray(node, (List<String>) children.get(i), nextLevel, fetches);
+        }
+      }
+
+      if (!fetches.isEmpty()) {
+        List<Object> values = (List<Object>) request("get", paths(fetches)).get("values");
+        for (int i = 0; i < fetches.size(); i++) {
+          fetches.get(i).apply(values.get(i));
+        }
+        transferredValues += fetches.size();
+      }
+      level = nextLevel;
+    }
+
+    for (int i = visited.size() - 1; i >= 0; i--) {
+      Node node = visited.get(i);
+      if (node.remoteHash != null) {
+        ((Map<String, Object>) node.container).put("_hash", node.remoteHash);
+      }
+    }
+    return new SyncResult(bytesTransferred, fullDocumentBytes, roundTrips, transferredValues);
+  }
+
+  private void compareObject(Node node, Map<String, String> remote, List<Node> nextLevel, List<Fetch> fetches) {
+    Map<String, Object> obj = (Map<String, Object>) node.container;
+    Set<String> removed = new HashSet<>(obj.keySet());
+    removed.removeAll(remote.keySet());
+    removed.remove("_hash");
+    obj.keySet().removeAll(removed);
+
+    for (Map.Entry<String, String> entry : remote.entrySet()) {
+      String key = entry.getKey();
+      Object value = obj.get(key);
+      boolean exists = value != null || obj.containsKey(key);
+      compare(node.child(key), exists, value, entry.getValue(), nextLevel, fetches,
+          fetched -> obj.put(key, fetched));
+    }
+  }
+
+  private void compareArray(Node node, List<String> remote, List<Node> nextLevel, List<Fetch> fetches) {
+    List<Object> list = (List<Object>) node.container;
+    while (list.size() > remote.size()) {
+      list.remove(list.size() - 1);
+    }
+
+    for (int i = 0; i < remote.size(); i++) {
+      int index = i;
+      boolean exists = i < list.size();
+      if (!exists) {
+        list.add(null);
+      }
+      compare(node.child(String.valueOf(i)), exists, list.get(i), remote.get(i), nextLevel, fetches,
+          fetched -> list.set(index, fetched));
+    }
+  }
+
+  private void compare(Node child, boolean exists, Object value, String remoteDigest, List<Node> nextLevel,
+      List<Fetch> fetches, Setter setter) {
+    if (exists && SyncServer.typedDigest(hasher, value).equals(remoteDigest)) {
+      return;
+    }
+    if (value instanceof Map && remoteDigest.startsWith("o:")) {
+      nextLevel.add(new Node(value, child.path, remoteDigest.substring(2)));
+    } else if (value instanceof List && remoteDigest.startsWith("a:")) {
+      nextLevel.add(new Node(value, child.path, null));
+    } else {
+      fetches.add(new Fetch(child.path, setter));
+    }
+  }
+
+  private Map<String, Object> request(String op, List<List<String>> paths) throws IOException {
+    Map<String, Object> message = new LinkedHashMap<>();
+    message.put("op", op);
+    if (paths != null) {
+      message.put("paths", paths);
+    }
+    String request = gson.toJson(message);
+    String response = transport.exchange(request);
+    roundTrips++;
+    bytesTransferred += request.getBytes(StandardCharsets.UTF_8).length
+        + response.getBytes(StandardCharsets.UTF_8).length;
+
+    Map<String, Object> result = gson.fromJson(response, Map.class);
+    if (result.containsKey("error")) {
+      throw new IOException("Server error: " + result.get("error"));
+    }
+    return result;
+  }
+
+  private static List<List<String>> paths(List<? extends HasPath> items) {
+    List<List<String>> paths = new ArrayList<>();
+    for (HasPath item : items) {
+      paths.add(item.path());
+    }
+    return paths;
+  }
+
+  private interface HasPath {
+    List<String> path();
+  }
+
+  @FunctionalInterface
+  private interface Setter {
+    void set(Object value);
+  }
+
+  private static final class Node implements HasPath {
+    final Object container;
+    final List<String> path;
+    // The _hash an object gets once it is synced, null for arrays
+    final String remoteHash;
+
+    Node(Object container, List<String> path, String remoteHash) {
+      this.container = container;
+      this.path = path;
+      this.remoteHash = remoteHash;
+    }
+
+    Node child(String key) {
+      List<String> childPath = new ArrayList<>(path);
+      childPath.add(key);
+      return new Node(null, childPath, null);
+    }
+
+    @Override
+    public List<String> path() {
+      return path;
+    }
+  }
+
+  private static final class Fetch implements HasPath {
+    final List<String> path;
+    final Setter setter;
+
+    Fetch(List<String> path, Setter setter) {
+      this.path = path;
+      this.setter = setter;
+    }
+
+    void apply(Object value) {
+      setter.set(value);
+    }
+
+    @Override
+    public List<String> path() {
+      return path;
+    }
+  }
+}
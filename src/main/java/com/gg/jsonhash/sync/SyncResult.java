@@ -0,0 +1,57 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash.sync;
+
+import java.util.Locale;
+
+/**
+ * Statistics of one {@link SyncClient#sync} run.
+ */
+public class SyncResult {
+  private final long bytesTransferred;
+  private final long fullDocumentBytes;
+  private final int roundTrips;
+  private final int transferredValues;
+
+  SyncResult(long bytesTransferred, long fullDocumentBytes, int roundTrips, int transferredValues) {
+    this.bytesTransferred = bytesTransferred;
+    this.fullDocumentBytes = fullDocumentBytes;
+    this.roundTrips = roundTrips;
+    this.transferredValues = transferredValues;
+  }
+
+  /**
+   * UTF-8 bytes of all requests and responses.
+   */
+  public long getBytesTransferred() {
+    return bytesTransferred;
+  }
+
+  /**
+   * UTF-8 bytes of the server's document serialized as JSON.
+   */
+  public long getFullDocumentBytes() {
+    return fullDocumentBytes;
+  }
+
+  public int getRoundTrips() {
+    return roundTrips;
+  }
+
+  /**
+   * Number of values and subtrees copied from the server.
+   */
+  public int getTransferredValues() {
+    return transferredValues;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "%d of %d bytes (%.1f%%) in %d round trips, %d values transferred",
+        bytesTransferred, fullDocumentBytes, fullDocumentBytes == 0 ? 0.0 : 100.0 * bytesTransferred / fullDocumentBytes,
+        roundTrips, transferredValues);
+  }
+}
@@ -0,0 +1,167 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash.sync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gg.jsonhash.JsonHash;
+import com.gg.jsonhash.StringLeaf;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Answers the requests of a {@link SyncClient} about a hashed document:
+ * <ul>
+ * <li>{@code {"op":"root"}}: the root hash and the size of the document</li>
+ * <li>{@code {"op":"children","paths":[...]}}: the typed digests of the
+ * children of the objects and arrays at the paths</li>
+ * <li>{@code {"op":"get","paths":[...]}}: the values at the paths</li>
+ * </ul>
+ * A typed digest is "o:" followed by an object's _hash, "a:" followed by the
+ * digest of an array or "v:" followed by the digest of a value.
+ */
+@SuppressWarnings("unchecked")
+public class SyncServer {
+  private final JsonHash hasher;
+  private final Map<String, Object> document;
+  // Writes StringLeaf values as strings
+  private final Gson gson = StringLeaf.registerWith(new GsonBuilder()).create();
+  private final long documentBytes;
+
+  public SyncServer(JsonHash hasher, Map<String, Object> hashedDocument) {
+    this.hasher = hasher;
+    this.document = hashedDocument;
+    this.documentBytes = gson.toJson(hashedDocument).getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  public String handle(String request) {
+    Map<String, Object> response = new LinkedHashMap<>();
+    try {
+      Map<String, Object> message = gson.fromJson(request, Map.class);
+      String op = String.valueOf(message.get("op"));
+      switch (op) {
+        case "root":
+          response.put("hash", digest(hasher, document));
+          response.put("size", documentBytes);
+          break;
+        case "children": {
+          List<Object> children = new ArrayList<>();
+          for (List<Object> path : (List<List<Object>>) message.get("paths")) {
+            children.add(children(resolve(path)));
+          }
+          response.put("children", children);
+          break;
+        }
+        case "get": {
+          List<Object> values = new ArrayList<>();
+          for (List<Object> path : (List<List<Object>>) message.get("paths")) {
+            values.add(resolve(path));
+          }
+          response.put("values", values);
+          break;
+        }
+        default:
+          response.put("error", "Unknown operation \"" + op + "\".");
+      }
+    } catch (RuntimeException e) {
+      response.clear();
+      response.put("error", String.valueOf(e.getMessage()));
+    }
+    return gson.toJson(response);
+  }
+
+  /**
+   * Answers length-prefixed requests from a {@link StreamTransport} until the
+   * input stream ends. Requests may have up to
+   * {@link StreamTransport#DEFAULT_MAX_MESSAGE_BYTES} bytes.
+   */
+  public void serve(InputStream in, OutputStream out) throws IOException {
+    serve(in, out, StreamTransport.DEFAULT_MAX_MESSAGE_BYTES);
+  }
+
+  /**
+   * Like {@link #serve(InputStream, OutputStream)}, but fails with an
+   * IOException on a request with a negative length or more than
+   * maxMessageBytes bytes.
+   */
+  public void serve(InputStream in, OutputStream out, int maxMessageBytes) throws IOException {
+    DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in));
+    DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+    for (String request = StreamTransport.readMessage(dataIn, maxMessageBytes); request != null;
+        request = StreamTransport.readMessage(dataIn, maxMessageBytes)) {
+      StreamTransport.writeMessage(dataOut, handle(request));
+    }
+  }
+
+  private Object children(Object container) {
+    if (container instanceof Map) {
+      Map<String, String> children = new LinkedHashMap<>();
+      for (Map.Entry<String, Object> entry : ((Map<String, Object>) container).entrySet()) {
+        if (!entry.getKey().equals("_hash")) {
+          children.put(entry.getKey(), typedDigest(hasher, entry.getValue()));
+        }
+      }
+      return children;
+    } else if (container instanceof List) {
+      List<String> children = new ArrayList<>();
+      for (Object element : (List<?>) container) {
+        children.add(typedDigest(hasher, element));
+      }
+      return children;
+    }
+    throw new RuntimeException("No object or array at the given path.");
+  }
+
+  private Object resolve(List<Object> path) {
+    Object value = document;
+    for (Object segment : path) {
+      String key = String.valueOf(segment);
+      if (value instanceof Map) {
+        value = ((Map<String, Object>) value).get(key);
+      } else if (value instanceof List) {
+        value = ((List<?>) value).get(Integer.parseInt(key));
+      } else {
+        throw new RuntimeException("Path " + path + " does not exist.");
+      }
+    }
+    return value;
+  }
+
+  static String typedDigest(JsonHash hasher, Object value) {
+    String type = value instanceof Map ? "o:" : value instanceof List ? "a:" : "v:";
+    return type + digest(hasher, value);
+  }
+
+  static String digest(JsonHash hasher, Object value) {
+    if (value instanceof Map) {
+      Object hash = ((Map<String, Object>) value).get("_hash");
+      return hash instanceof String ? (String) hash : hasher.rootHash((Map<String, Object>) value);
+    } else if (value instanceof List) {
+      StringBuilder digests = new StringBuilder("[");
+      for (Object element : (List<?>) value) {
+        if (digests.length() > 1) {
+          digests.append(',');
+        }
+        digests.append(typedDigest(hasher, element));
+      }
+      return hasher.calcHash(digests.append(']').toString());
+    }
+    Object converted = value == null ? null : JsonHash.convertBasicType(value, hasher.getFloatingPointPrecision());
+    return hasher.calcHash(JsonHash.jsonString(Collections.singletonMap("v", converted)));
+  }
+}
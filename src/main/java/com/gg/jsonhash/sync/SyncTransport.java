@@ -0,0 +1,24 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash.sync;
+
+import java.io.IOException;
+
+/**
+ * Carries one request of a {@link SyncClient} to a {@link SyncServer} and
+ * returns the server's response. Requests and responses are JSON strings.
+ */
+@FunctionalInterface
+public interface SyncTransport {
+  String exchange(String request) throws IOException;
+
+  /**
+   * Calls the server directly, e.g. for replicas within one process.
+   */
+  static SyncTransport direct(SyncServer server) {
+    return server::handle;
+  }
+}
@@ -0,0 +1,62 @@
+// @license
+// Copyright (c) 2019 - 2024 Dr. Gabriel Gatzsche. All Rights Reserved.
+//
+// Use of this source code is governed by terms that can be
+// found in the LICENSE file in the root of this package.
+package com.gg.jsonhash;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Scans a vector of characters at a time for quotes and non-ASCII and
+ * narrows clean vectors to bytes in one step. The tail shorter than a vector
+ * and the run up to the first stop are left to the scalar scanner.
+ *
+ * Compiled with --add-modules jdk.incubator.vector into META-INF/versions/17
+ * and only loaded by AsciiScanner when that module is present.
+ */
+final class VectorAsciiScanner extends AsciiScanner {
+  private static final VectorSpecies<Short> CHARS = ShortVector.SPECIES_PREFERRED;
+  // Half as wide, so a vector of chars narrows to exactly one vector of bytes
+  private static final VectorSpecies<Byte> NARROWED = VectorSpecies.of(byte.class,
+      VectorShape.forBitSize(CHARS.vectorBitSize() / 2));
+  private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+  @Override
+  int copyAscii(char[] chars, int from, int to, byte[] target, int position, boolean stopAtQuote) {
+    int i = from;
+    int bound = from + CHARS.loopBound(to - from);
+    for (; i < bound; i += CHARS.length()) {
+      ShortVector v = ShortVector.fromCharArray(CHARS, chars, i);
+      VectorMask<Short> stop = v.and((short) 0xFF80).compare(VectorOperators.NE, 0);
+      if (stopAtQuote) {
+        stop = stop.or(v.compare(VectorOperators.EQ, '"'));
+      }
+      if (stop.anyTrue()) {
+        break;
+      }
+      v.convertShape(VectorOperators.S2B, NARROWED, 0).reinterpretAsBytes()
+          .intoArray(target, position + i - from);
+    }
+    return super.copyAscii(chars, i, to, target, position + i - from, stopAtQuote);
+  }
+
+  @Override
+  int copyAscii(byte[] bytes, int from, int to, byte[] target, int position) {
+    int i = from;
+    int bound = from + BYTES.loopBound(to - from);
+    for (; i < bound; i += BYTES.length()) {
+      ByteVector v = ByteVector.fromArray(BYTES, bytes, i);
+      if (v.compare(VectorOperators.LT, 0).or(v.compare(VectorOperators.EQ, '"')).anyTrue()) {
+        break;
+      }
+      v.intoArray(target, position + i - from);
+    }
+    return super.copyAscii(bytes, i, to, target, position + i - from);
+  }
+}
@@ -0,0 +1,93 @@
+package com.gg.jasonhash;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.gg.jsonhash.HashSidecar;
+import com.gg.jsonhash.JsonHash;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("unchecked")
+public class HashSidecarTest {
+  private static final String json = "{\"a\": {\"b\": [1, {\"c\": \"d\"}]}, \"e\": 1.5}";
+
+  private final JsonHash jh = new JsonHash();
+  private final HashSidecar sidecar = new HashSidecar(jh);
+
+  @TempDir
+  Path dir;
+
+  private Path writeJson(String content) throws IOException {
+    Path file = dir.resolve("config.json");
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  @Test
+  void testLoadHashesAndWritesSidecar() throws IOException {
+    Path file = writeJson(json);
+    assertFalse(sidecar.isFresh(file));
+
+    Map<String, Object> loaded = sidecar.load(file);
+    assertEquals(jh.applyTo(new Gson().fromJson(json, Map.class)), loaded);
+    assertTrue(Files.exists(dir.resolve("config.json.hashes")));
+    assertTrue(sidecar.isFresh(file));
+  }
+
+  @Test
+  void testLoadUsesFreshSidecarWithoutHashing() throws IOException {
+    Path file = writeJson(json);
+    Map<String, Object> hashed = sidecar.load(file);
+
+    // Hashes written by another hasher prove that the sidecar is used as is
+    Map<String, Object> marked = jh.applyTo(hashed);
+    marked.put("_hash", "fromSidecar");
+    sidecar.write(file, marked);
+
+    assertEquals("fromSidecar", sidecar.load(file).get("_hash"));
+  }
+
+  @Test
+  void testChangedFileIsHashedAgain() throws IOException {
+    Path file = writeJson(json);
+    sidecar.load(file);
+
+    String changed = json.replace("1.5", "2.5");
+    Files.write(file, changed.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+    assertFalse(sidecar.isFresh(file));
+
+    Map<String, Object> loaded = sidecar.load(file);
+    assertEquals(jh.rootHash(changed), loaded.get("_hash"));
+    assertTrue(sidecar.isFresh(file));
+  }
+
+  @Test
+  void testChangedContentWithSameSizeAndTimeIsDetected() throws IOException {
+    Path file = writeJson(json);
+    sidecar.load(file);
+    FileTime modified = Files.getLastModifiedTime(file);
+
+    Files.write(file, json.replace("1.5", "2.5").getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, modified);
+    assertFalse(sidecar.isFresh(file));
+  }
+
+  @Test
+  void testSidecarOfOtherConfigurationIsIgnored() throws IOException {
+    Path file = writeJson(json);
+    sidecar.load(file);
+
+    HashSidecar shortHashes = new HashSidecar(new JsonHash(10, 10));
+    assertFalse(shortHashes.isFresh(file));
+    assertEquals(10, ((String) shortHashes.load(file).get("_hash")).length());
+  }
+}
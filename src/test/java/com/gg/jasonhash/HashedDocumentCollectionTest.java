@@ -0,0 +1,95 @@
+package com.gg.jasonhash;
+
+import org.junit.jupiter.api.Test;
+import com.gg.jsonhash.HashedDocumentCollection;
+import com.gg.jsonhash.JsonHash;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("unchecked")
+public class HashedDocumentCollectionTest {
+  private final JsonHash jh = new JsonHash();
+  private final HashedDocumentCollection collection = new HashedDocumentCollection(jh);
+
+  private final Map<String, Object> shared = Map.of("key", "value");
+  private final String sharedHash = jh.calcHash("{\"key\":\"value\"}");
+
+  @Test
+  void testAddIndexesAllObjects() {
+    Map<String, Object> doc = collection.add("doc0", Map.of(
+        "child", shared,
+        "list", Arrays.asList(1, Map.of("other", true))));
+
+    assertEquals(1, collection.size());
+    assertTrue(collection.contains((String) doc.get("_hash")));
+    assertTrue(collection.contains(sharedHash));
+    assertTrue(collection.contains(jh.calcHash("{\"other\":true}")));
+    assertFalse(collection.contains("unknownHashXXXXXXXXXXX"));
+
+    List<HashedDocumentCollection.Location> locations = collection.locate(jh.calcHash("{\"other\":true}"));
+    assertEquals(1, locations.size());
+    assertEquals("doc0", locations.get(0).getDocumentId());
+    assertEquals("/list/1", locations.get(0).getPath());
+    assertEquals(Map.of("other", true, "_hash", jh.calcHash("{\"other\":true}")),
+        collection.find(jh.calcHash("{\"other\":true}")));
+  }
+
+  @Test
+  void testSharedSubtreesAreFoundInAllDocuments() {
+    collection.add("doc0", Map.of("a", shared));
+    collection.add("doc1", Map.of("b", Map.of("c", shared)));
+    collection.add("doc2", Map.of("d", 1));
+
+    assertEquals(new LinkedHashSet<>(Arrays.asList("doc1", "doc0")), collection.documentsContaining(sharedHash));
+    List<String> paths = new ArrayList<>();
+    for (HashedDocumentCollection.Location location : collection.locate(sharedHash)) {
+      paths.add(location.getDocumentId() + location.getPath());
+    }
+    assertEquals(Arrays.asList("doc1/b/c", "doc0/a"), paths);
+  }
+
+  @Test
+  void testRemoveAndReplaceUpdateTheIndex() {
+    collection.add("doc0", Map.of("a", shared));
+    collection.add("doc1", Map.of("b", shared));
+
+    assertTrue(collection.remove("doc0"));
+    assertFalse(collection.remove("doc0"));
+    assertEquals(Set.of("doc1"), collection.documentsContaining(sharedHash));
+
+    collection.add("doc1", Map.of("b", 2));
+    assertFalse(collection.contains(sharedHash));
+    assertNull(collection.find(sharedHash));
+    assertEquals(1, collection.size());
+  }
+
+  @Test
+  void testKeysWithSlashesAndTildesAreEscaped() {
+    Map<String, Object> inner = Map.of("x", 1);
+    String innerHash = jh.calcHash("{\"x\":1}");
+    collection.add("d", Map.of("a/b", Map.of("~c", Arrays.asList(inner)), "", Map.of("y", 2)));
+
+    assertEquals("/a~1b/~0c/0", collection.locate(innerHash).get(0).getPath());
+    assertEquals(Map.of("x", 1, "_hash", innerHash), collection.find(innerHash));
+    assertEquals(Map.of("y", 2, "_hash", jh.calcHash("{\"y\":2}")), collection.find(jh.calcHash("{\"y\":2}")));
+  }
+
+  @Test
+  void testManyDocuments() {
+    for (int i = 0; i < 2000; i++) {
+      collection.add("doc" + i, Map.of("i", i, "child", Map.of("j", i % 10)));
+    }
+    for (int i = 0; i < 2000; i += 2) {
+      collection.remove("doc" + i);
+    }
+
+    for (int i = 0; i < 2000; i++) {
+      String hash = jh.rootHash(Map.of("i", i, "child", Map.of("j", i % 10)));
+      assertEquals(i % 2 == 1, collection.contains(hash), "doc" + i);
+    }
+    assertEquals(200, collection.locate(jh.calcHash("{\"j\":3}")).size());
+    assertEquals(0, collection.locate(jh.calcHash("{\"j\":4}")).size());
+  }
+}
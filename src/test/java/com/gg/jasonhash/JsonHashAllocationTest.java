@@ -0,0 +1,164 @@
+package com.gg.jasonhash;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import com.gg.jsonhash.JsonHash;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Fails when the bytes allocated per hashed node exceed the budgets below.
+ * A node is an object or a value. Raise a budget only deliberately.
+ */
+@SuppressWarnings("unchecked")
+public class JsonHashAllocationTest {
+  private static final int WARMUP_NODES = 50_000;
+  private static final int MEASURED_NODES = 10_000;
+
+  private static final long APPLY_TO_BUDGET = 400;
+  private static final long APPLY_TO_IN_PLACE_BUDGET = 300;
+  private static final long VALIDATE_BUDGET = 400;
+  private static final long ROOT_HASH_BUDGET = 300;
+  private static final long CALC_HASH_BUDGET = 600;
+
+  private static com.sun.management.ThreadMXBean threadMXBean;
+
+  private final JsonHash jh = new JsonHash();
+
+  @BeforeAll
+  static void setUpMXBean() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    threadMXBean = (com.sun.management.ThreadMXBean) bean;
+    assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+    threadMXBean.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  @Test
+  void testApplyToStaysWithinBudget() {
+    for (Map<String, Object> doc : documents()) {
+      assertWithinBudget("applyTo", APPLY_TO_BUDGET, nodeCount(doc), () -> jh.applyTo(doc));
+    }
+  }
+
+  @Test
+  void testApplyToInPlaceStaysWithinBudget() {
+    for (Map<String, Object> doc : documents()) {
+      Map<String, Object> hashed = jh.applyTo(doc);
+      assertWithinBudget("applyTo in place", APPLY_TO_IN_PLACE_BUDGET, nodeCount(doc),
+          () -> jh.applyTo(hashed, true));
+    }
+  }
+
+  @Test
+  void testValidateStaysWithinBudget() {
+    for (Map<String, Object> doc : documents()) {
+      Map<String, Object> hashed = jh.applyTo(doc);
+      assertWithinBudget("validate", VALIDATE_BUDGET, nodeCount(doc), () -> {
+        try {
+          jh.validate(hashed);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+    }
+  }
+
+  @Test
+  void testRootHashStaysWithinBudget() {
+    for (Map<String, Object> doc : documents()) {
+      assertWithinBudget("rootHash", ROOT_HASH_BUDGET, nodeCount(doc), () -> jh.rootHash(doc));
+    }
+  }
+
+  @Test
+  void testCalcHashStaysWithinBudget() {
+    String value = "{\"key\":\"value\",\"number\":1.2345,\"flag\":true}";
+    assertWithinBudget("calcHash", CALC_HASH_BUDGET, 1, () -> jh.calcHash(value));
+  }
+
+  private static void assertWithinBudget(String name, long budgetPerNode, int nodes, Runnable operation) {
+    int warmupRounds = Math.max(20, WARMUP_NODES / nodes);
+    int measuredRounds = Math.max(10, MEASURED_NODES / nodes);
+    for (int i = 0; i < warmupRounds; i++) {
+      operation.run();
+    }
+
+    // The minimum of several samples filters out one-off allocations, e.g. by
+    // the JIT or lazily initialized JDK classes.
+    long bytesPerNode = Long.MAX_VALUE;
+    for (int sample = 0; sample < 5; sample++) {
+      long threadId = Thread.currentThread().getId();
+      long before = threadMXBean.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < measuredRounds; i++) {
+        operation.run();
+      }
+      long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+      bytesPerNode = Math.min(bytesPerNode, allocated / measuredRounds / nodes);
+    }
+
+    assertTrue(bytesPerNode <= budgetPerNode, name + " allocated " + bytesPerNode + " bytes per node with "
+        + nodes + " nodes. Budget is " + budgetPerNode + ".");
+  }
+
+  private static int nodeCount(Object value) {
+    int count = 1;
+    if (value instanceof Map) {
+      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+        if (!entry.getKey().equals("_hash")) {
+          count += nodeCount(entry.getValue());
+        }
+      }
+    } else if (value instanceof List) {
+      for (Object element : (List<?>) value) {
+        count += nodeCount(element);
+      }
+    }
+    return count;
+  }
+
+  private static List<Map<String, Object>> documents() {
+    return Arrays.asList(flatRecord(0), nestedDocument(), recordList(100));
+  }
+
+  private static Map<String, Object> flatRecord(int i) {
+    Map<String, Object> record = new LinkedHashMap<>();
+    record.put("id", i);
+    record.put("name", "Unterschrank " + i);
+    record.put("type", "XYZABC");
+    record.put("width", 600.5 + i);
+    record.put("depth", 560.0);
+    record.put("height", 720.25);
+    record.put("visible", true);
+    record.put("tags", Arrays.asList("kitchen", "base", i));
+    return record;
+  }
+
+  private static Map<String, Object> nestedDocument() {
+    Map<String, Object> doc = new LinkedHashMap<>();
+    for (String layer : Arrays.asList("layerA", "layerB", "layerC")) {
+      Map<String, Object> layerData = new LinkedHashMap<>();
+      layerData.put("data", Arrays.asList(flatRecord(1), flatRecord(2)));
+      Map<String, Object> meta = new LinkedHashMap<>();
+      meta.put("version", 3);
+      meta.put("owner", "team \"kitchen\"");
+      layerData.put("meta", meta);
+      doc.put(layer, layerData);
+    }
+    return doc;
+  }
+
+  private static Map<String, Object> recordList(int size) {
+    List<Object> records = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      records.add(flatRecord(i));
+    }
+    Map<String, Object> doc = new LinkedHashMap<>();
+    doc.put("records", records);
+    return doc;
+  }
+}
@@ -0,0 +1,120 @@
+package com.gg.jasonhash;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.gg.jsonhash.JsonHash;
+import com.gg.jsonhash.JsonHashCli;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonHashCliTest {
+  private final JsonHash jh = new JsonHash();
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+  @TempDir
+  Path dir;
+
+  private int run(String stdin, String... args) {
+    return JsonHashCli.run(args, new ByteArrayInputStream(stdin.getBytes(StandardCharsets.UTF_8)),
+        new PrintStream(out, true), new PrintStream(err, true));
+  }
+
+  private String out() {
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  private String err() {
+    return err.toString(StandardCharsets.UTF_8);
+  }
+
+  private Path write(String name, String content) throws IOException {
+    Path file = dir.resolve(name);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  @Test
+  void testHashesStdin() {
+    assertEquals(0, run("{\"key\": \"value\"}", "--quiet"));
+    assertEquals("{\"key\":\"value\",\"_hash\":\"5Dq88zdSRIOcAS-WM_lYYt\"}\n", out());
+    assertEquals("", err());
+  }
+
+  @Test
+  void testPrintsRootHashesOfDirectoriesRecursively() throws IOException {
+    Path a = write("a.json", "{\"key\": \"value\"}");
+    Path b = write("sub/b.json", "{\"key\": 1}");
+    write("sub/ignored.txt", "no json");
+
+    assertEquals(0, run("", "--root-hash", "--threads", "2", dir.toString()));
+    assertEquals("5Dq88zdSRIOcAS-WM_lYYt  " + a + "\n"
+        + "t4HVsGBJblqznOBwy6IeLt  " + b + "\n", out());
+    assertTrue(err().startsWith("2 files ("), err());
+    assertTrue(err().contains("files/s"), err());
+    assertTrue(err().contains("MB/s"), err());
+    assertTrue(err().contains("Phases (summed over 2 threads): read"), err());
+  }
+
+  @Test
+  void testHashesFilesInPlaceAndValidatesThem() throws IOException {
+    Path file = write("a.json", "{\"a\": {\"b\": 1.123}}");
+    assertEquals(0, run("", "--in-place", "--quiet", "--hash-length", "10", "--precision", "2", file.toString()));
+    assertEquals("", out());
+
+    String hashed = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    assertEquals(new JsonHash(10, 2).applyToString("{\"a\": {\"b\": 1.123}}"), hashed);
+    assertFalse(Files.exists(dir.resolve("a.json.tmp")));
+
+    assertEquals(0, run("", "--validate", "--quiet", "--hash-length", "10", "--precision", "2", file.toString()));
+    assertEquals(file + ": OK\n", out());
+  }
+
+  @Test
+  void testValidatesStdinWhileReadingIt() {
+    String hashed = jh.applyToString("{\"a\": {\"b\": [1, 2]}}");
+    assertEquals(0, run(hashed, "--validate"));
+    assertEquals("-: OK\n", out());
+    assertTrue(err().contains("read+validate"), err());
+    assertTrue(err().startsWith("1 files ("), err());
+  }
+
+  @Test
+  void testValidationFailureSetsExitCode() throws IOException {
+    Path file = write("a.json", jh.applyToString("{\"a\": 1}").replace("1.0", "2.0"));
+    assertEquals(1, run("", "--validate", "--quiet", file.toString()));
+    assertTrue(out().startsWith(file + ": FAILED Hash \""), out());
+  }
+
+  @Test
+  void testReportsUnreadableInputs() {
+    assertEquals(1, run("", "--quiet", dir.resolve("missing.json").toString()));
+    assertTrue(err().startsWith(dir.resolve("missing.json") + ": "), err());
+  }
+
+  @Test
+  void testRejectsInvalidArguments() {
+    assertEquals(2, run("", "--unknown"));
+    assertTrue(err().startsWith("Unknown option --unknown.\nUsage:"), err());
+    assertEquals(0, run("", "--help"));
+    assertTrue(out().startsWith("Usage:"));
+  }
+
+  @Test
+  void testRejectsOptionsIgnoredByValidation() throws IOException {
+    Path file = write("a.json", jh.applyToString("{\"a\": 1}"));
+    assertEquals(2, run("", "--validate", "--keep-existing", file.toString()));
+    assertTrue(err().startsWith("--keep-existing and --no-recursive cannot be used with --validate.\nUsage:"), err());
+    assertEquals(2, run("", "--validate", "--no-recursive", file.toString()));
+    assertEquals("", out());
+  }
+}
@@ -2,10 +2,19 @@ package com.gg.jasonhash;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import com.gg.jsonhash.HashResolver;
 import com.gg.jsonhash.JsonHash;
+import com.gg.jsonhash.StringLeaf;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.function.Function;
 
@@ -334,6 +343,106 @@ public class JsonHashTest {
     assertEquals("{\"a\":{\"b\":1}}", JsonHash.jsonString(Map.of("a", Map.of("b", 1))));
   }
 
+  @Test
+  void testJsonStringEscapesQuotes() {
+    assertEquals("{\"a\":\"\\\"b\\\"c\\\"\"}", JsonHash.jsonString(Map.of("a", "\"b\"c\"")));
+    assertEquals("{\"a\":[\"x\\\"\",null]}", JsonHash.jsonString(Map.of("a", Arrays.asList("x\"", null))));
+  }
+
+  @Test
+  void testHashesMatchUtf8BytesOfCanonicalString() throws Exception {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 20_000; i++) {
+      large.append(i % 97 == 0 ? "\"" : i % 89 == 0 ? "ä€😀" : "x");
+    }
+    List<String> values = new ArrayList<>(Arrays.asList("", "plain", "\"", "ünïcödé", "😀 emoji", "lone \uD800 high",
+        "lone \uDC00 low", "end \uD800", large.toString()));
+    // A stop at every position of the vectorized scans
+    String ascii = "abcdefghijklmnopqrstuvwxyz".repeat(3);
+    for (int i = 0; i < ascii.length(); i++) {
+      for (String stop : Arrays.asList("\"", "ü", "😀")) {
+        values.add(ascii.substring(0, i) + stop + ascii.substring(i));
+      }
+    }
+
+    MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+    for (String value : values) {
+      String canonical = JsonHash.jsonString(Map.of("k", value));
+      String expected = Base64.encodeBase64URLSafeString(
+          sha256.digest(canonical.getBytes(StandardCharsets.UTF_8))).substring(0, 22);
+      byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+
+      assertEquals(expected, jh.calcHash(canonical));
+      assertEquals(expected, jh.rootHash(Map.of("k", value)));
+      assertEquals(expected, jh.rootHash(new Gson().toJson(Map.of("k", value))));
+      assertEquals(expected, jh.rootHash(Map.of("k", StringLeaf.ofUtf8(utf8, 0, utf8.length))));
+    }
+  }
+
+  @Test
+  void testStringLeavesHashLikeStrings() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 8191; i++) {
+      builder.append((char) ('a' + i % 26));
+    }
+    builder.append("😀 \"quoted\" ü€");
+    for (int i = 0; i < 30_000; i++) {
+      builder.append(i % 1000 == 0 ? "\"ä" : "x");
+    }
+    String value = builder.toString();
+    byte[] utf8 = ("--" + value + "--").getBytes(StandardCharsets.UTF_8);
+    String expected = jh.rootHash(Map.of("a", value, "list", Arrays.asList(value, 1)));
+
+    int[] opened = new int[1];
+    List<StringLeaf> leaves = Arrays.asList(
+        StringLeaf.of(builder),
+        StringLeaf.ofUtf8(utf8, 2, utf8.length - 4),
+        StringLeaf.ofReader(() -> {
+          opened[0]++;
+          return new java.io.StringReader(value);
+        }));
+    for (StringLeaf leaf : leaves) {
+      assertEquals(expected, jh.rootHash(Map.of("a", leaf, "list", Arrays.asList(leaf, 1))));
+      assertEquals(value, leaf.toString());
+    }
+    assertEquals(3, opened[0]);
+
+    byte[] malformed = { 'a', (byte) 0xC3, '"', (byte) 0xFF, (byte) 0xE2, (byte) 0x82, 'z' };
+    assertEquals(jh.rootHash(Map.of("a", new String(malformed, StandardCharsets.UTF_8))),
+        jh.rootHash(Map.of("a", StringLeaf.ofUtf8(malformed, 0, malformed.length))));
+    assertEquals("{\"a\":\"x\\\"\"}", JsonHash.jsonString(Map.of("a", StringLeaf.of("x\""))));
+  }
+
+  @Test
+  void testStringLeavesSerializeWithRegisteredAdapter() {
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("a", StringLeaf.of("x\""));
+    json.put("list", Arrays.asList(StringLeaf.of("y")));
+    jh.applyTo(json, true);
+    Gson gson = StringLeaf.registerWith(new GsonBuilder()).create();
+    String serialized = gson.toJson(json);
+
+    assertEquals("{\"a\":\"x\\\"\",\"list\":[\"y\"],\"_hash\":\"" + json.get("_hash") + "\"}", serialized);
+    assertDoesNotThrow(() -> jh.validate(gson.fromJson(serialized, Map.class)));
+    assertEquals("x\"", gson.fromJson("\"x\\\"\"", StringLeaf.class).toString());
+  }
+
+  @Test
+  void testRecordsWithSameSchemaInDifferentKeyOrder() {
+    for (int i = 0; i < 100; i++) {
+      Map<String, Object> a = new LinkedHashMap<>();
+      a.put("name", "n\"" + i);
+      a.put("id", i);
+      Map<String, Object> b = new LinkedHashMap<>();
+      b.put("id", i);
+      b.put("name", "n\"" + i);
+
+      String expectedHash = calcHash.apply("{\"id\":" + i + ",\"name\":\"n\\\"" + i + "\"}");
+      assertEquals(expectedHash, jh.applyTo(a).get("_hash"));
+      assertEquals(expectedHash, jh.applyTo(b).get("_hash"));
+    }
+  }
+
   @Test
   void testJsonStringThrowsWhenUnsupportedType() {
     String message = "";
@@ -371,6 +480,184 @@ public class JsonHashTest {
     assertEquals("{\"key\":\"value\",\"_hash\":\"5Dq88zdSRIOcAS-WM_lYYt\"}", jsonString);
   }
 
+  @Test
+  void testRootHashOfMapEqualsAppliedHash() {
+    Map<String, Object> json = new Gson().fromJson(exampleJson, Map.class);
+    String rootHash = jh.rootHash(json);
+    assertEquals("OmmdaqCAhcIKnDm7lT-_gI", rootHash);
+    assertEquals(new Gson().fromJson(exampleJson, Map.class), json);
+  }
+
+  @Test
+  void testRootHashOfStringAndStream() {
+    assertEquals("OmmdaqCAhcIKnDm7lT-_gI", jh.rootHash(exampleJson));
+    assertEquals("OmmdaqCAhcIKnDm7lT-_gI",
+        jh.rootHash(new ByteArrayInputStream(exampleJson.getBytes(StandardCharsets.UTF_8))));
+    assertEquals("5Dq88zdSRIOcAS-WM_lYYt", jh.rootHash("{\"key\": \"value\", \"_hash\": \"oldHash\"}"));
+    assertEquals("1X_6COC1sP5ECuHvKtVoDT", jh.rootHash("{\"array\": [[\"key\", 1.0, true], \"hello\"]}"));
+    String withNumberHash = "{\"_hash\": 5, \"a\": 1}";
+    assertEquals(jh.applyTo(new Gson().fromJson(withNumberHash, Map.class)).get("_hash"), jh.rootHash(withNumberHash));
+  }
+
+  @Test
+  void testRootHashRespectsExistingHashes() {
+    String nested = "{\"a\": {\"_hash\": \"hash_a\", \"b\": 1}, \"l\": [{\"_hash\": \"hash_l\", \"c\": 2}]}";
+    for (JsonHash hasher : Arrays.asList(
+        new JsonHash(22, 10, true, true),
+        new JsonHash(22, 10, true, false),
+        new JsonHash(22, 10, false, true),
+        new JsonHash(22, 10, false, false))) {
+      Map<String, Object> json = new Gson().fromJson(nested, Map.class);
+      String expected = (String) hasher.applyTo(json).get("_hash");
+      assertEquals(expected, hasher.rootHash(json));
+      assertEquals(expected, hasher.rootHash(nested));
+    }
+    assertEquals("existing", new JsonHash(22, 10, false, true).rootHash("{\"_hash\": \"existing\", \"b\": 1}"));
+  }
+
+  @Test
+  void testRootHashThrowsWhenJsonIsNoObject() {
+    String message = "";
+    try {
+      jh.rootHash("[1, 2]");
+    } catch (Exception e) {
+      message = e.getMessage();
+    }
+    assertEquals("Expected a JSON object but was BEGIN_ARRAY.", message);
+  }
+
+  @Test
+  void testHashResolverByIdentitySkipsResolvedSubtrees() {
+    Map<String, Object> table = new HashMap<>();
+    table.put("key", "value");
+    Map<String, Object> equalTable = new HashMap<>(table);
+    IdentityHashMap<Map<String, Object>, String> hashes = new IdentityHashMap<>();
+    hashes.put(table, "precomputed");
+    JsonHash resolving = new JsonHash(22, 10, true, true, HashResolver.byIdentity(hashes));
+
+    Map<String, Object> json = new HashMap<>();
+    json.put("table", table);
+    json.put("list", Arrays.asList(table));
+    json.put("other", equalTable);
+    Map<String, Object> hashed = resolving.applyTo(json);
+
+    assertSame(table, hashed.get("table"));
+    assertSame(table, ((List<Object>) hashed.get("list")).get(0));
+    assertFalse(table.containsKey("_hash"));
+    String equalTableHash = calcHash.apply("{\"key\":\"value\"}");
+    assertEquals(equalTableHash, ((Map<String, Object>) hashed.get("other")).get("_hash"));
+    assertEquals(calcHash.apply("{\"list\":[\"precomputed\"],\"other\":\"" + equalTableHash
+        + "\",\"table\":\"precomputed\"}"), hashed.get("_hash"));
+    assertEquals(hashed.get("_hash"), resolving.rootHash(json));
+    assertThrows(IllegalStateException.class,
+        () -> resolving.validate(stream(new Gson().toJson(hashed))));
+  }
+
+  @Test
+  void testHashResolverByIdField() {
+    JsonHash resolving = new JsonHash(22, 10, true, true,
+        HashResolver.byIdField("id", Map.of("countries-v3", "countriesHash")));
+
+    Map<String, Object> hashed = resolving.applyTo(Map.of(
+        "key", "value",
+        "countries", Map.of("id", "countries-v3", "rows", Arrays.asList(1, 2, 3))));
+
+    assertEquals(calcHash.apply("{\"countries\":\"countriesHash\",\"key\":\"value\"}"), hashed.get("_hash"));
+    assertDoesNotThrow(() -> resolving.validate(hashed));
+  }
+
+  private static InputStream stream(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String validationError(JsonHash hasher, InputStream stream) {
+    try {
+      hasher.validate(stream);
+    } catch (Exception e) {
+      return e.getMessage();
+    }
+    return "";
+  }
+
+  @Test
+  void testValidateStreamAcceptsHashedJson() {
+    assertEquals("", validationError(jh, stream(exampleJsonWithHashes)));
+    assertEquals("", validationError(jh, stream(jh.applyToString("{\"a\": \"\\u00e4\\\"\\n\", \"b\": [null, -1.5e3]}"))));
+  }
+
+  @Test
+  void testValidateStreamReportsPathAndOffsetOfWrongHash() {
+    String tampered = exampleJsonWithHashes.replace("\"h\": 800.0", "\"h\": 801.0");
+    int offset = tampered.indexOf("{", tampered.indexOf("\"layerC\""));
+    offset = tampered.indexOf("{", offset + 1);
+
+    assertEquals("Hash at /layerC/data/0 \"KvMHhk1dYYQ2o5Srt6pTUN\" is wrong. Should be \""
+        + calcHash.apply("{\"h\":801}") + "\". (object at byte " + offset + ")",
+        validationError(jh, stream(tampered)));
+  }
+
+  @Test
+  void testValidateStreamReportsMissingHash() {
+    assertEquals("Hash at /a is missing. (object at byte 6)",
+        validationError(jh, stream("{\"a\": {\"b\": 1}, \"_hash\": \"x\"}")));
+    assertEquals("Hash is missing. (object at byte 0)", validationError(jh, stream("{}")));
+  }
+
+  @Test
+  void testValidateStreamStopsAtFirstMismatch() {
+    String hashed = jh.applyToString("{\"a\": {\"b\": 1}, \"c\": \"d\"}");
+    String tampered = hashed.replace("\"b\":1.0", "\"b\":2.0");
+    String prefix = tampered.substring(0, tampered.indexOf("}") + 1);
+
+    InputStream failingRest = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("Read beyond the first mismatch");
+      }
+    };
+    String message = validationError(jh, new SequenceInputStream(stream(prefix), failingRest));
+    assertTrue(message.startsWith("Hash at /a "), message);
+  }
+
+  @Test
+  void testValidateStreamReportsSyntaxErrors() {
+    assertEquals("Expected a JSON object at byte 0.", validationError(jh, stream("[]")));
+    assertEquals("Expected ':' at byte 5.", validationError(jh, stream("{\"a\" 1}")));
+    String hashed = jh.applyToString("{}");
+    assertEquals("Unexpected content after the root object at byte " + hashed.length() + ".",
+        validationError(jh, stream(hashed + "x")));
+  }
+
+  @Test
+  void testValidateStreamRejectsInvalidUtf8() {
+    int[][] invalid = {
+        { 0x80 }, // Stray continuation byte
+        { 0xC0, 0xAF }, // Overlong '/'
+        { 0xE0, 0x80, 0xAF }, // Overlong '/'
+        { 0xF0, 0x80, 0x80, 0xAF }, // Overlong '/'
+        { 0xED, 0xA0, 0x80 }, // Encoded surrogate U+D800
+        { 0xF4, 0x90, 0x80, 0x80 }, // U+110000
+        { 0xF8, 0x88, 0x80, 0x80, 0x80 }, // Five byte form
+        { 0xFF },
+        { 0xC3, 0x28 } // Missing continuation byte
+    };
+    for (int[] bytes : invalid) {
+      byte[] json = new byte[8 + bytes.length];
+      System.arraycopy("{\"a\":\"".getBytes(StandardCharsets.UTF_8), 0, json, 0, 6);
+      for (int i = 0; i < bytes.length; i++) {
+        json[6 + i] = (byte) bytes[i];
+      }
+      json[6 + bytes.length] = '"';
+      json[7 + bytes.length] = '}';
+      String message = validationError(jh, new ByteArrayInputStream(json));
+      assertTrue(message.startsWith("Invalid UTF-8 byte at byte "), Arrays.toString(bytes) + ": " + message);
+    }
+    assertEquals("Invalid UTF-8 byte at byte 6.",
+        validationError(jh, new ByteArrayInputStream(new byte[] { '{', '"', 'a', '"', ':', '"', (byte) 0xF4,
+            (byte) 0x90, (byte) 0x80, (byte) 0x80, '"', '}' })));
+    assertEquals("", validationError(jh, stream(jh.applyToString("{\"a\": \"\u00e4\u20ac\ud83d\ude00\"}"))));
+  }
+
   private Map<String, Object> json;
 
   @BeforeEach
@@ -0,0 +1,131 @@
+package com.gg.jasonhash;
+
+import org.junit.jupiter.api.Test;
+import com.gg.jsonhash.JsonHash;
+import com.gg.jsonhash.JsonTape;
+import com.google.gson.Gson;
+
+import java.io.ByteArrayInputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+@SuppressWarnings("unchecked")
+public class JsonTapeTest {
+  private final JsonHash jh = new JsonHash();
+  private final Gson gson = new Gson();
+
+  private static final String JSON = "{\"name\":\"tape \\\"ü😀\",\"count\":3.14159,\"flag\":true,"
+      + "\"child\":{\"b\":1,\"a\":[1,\"x\",{\"deep\":false}]},\"list\":[[1,2],[]]}";
+
+  @Test
+  void testHashFillsSlotsLikeApplyTo() {
+    Map<String, Object> expected = jh.applyTo(gson.fromJson(JSON, Map.class), true);
+
+    try (JsonTape tape = JsonTape.parse(JSON)) {
+      assertNull(tape.root().get("_hash"));
+      assertEquals(expected.get("_hash"), tape.hash(jh));
+      assertEquals(expected, tape.root());
+      assertDoesNotThrow(() -> jh.validate(tape.root()));
+    }
+  }
+
+  @Test
+  void testViewIsReadOnlyExceptHash() {
+    try (JsonTape tape = JsonTape.parse(new ByteArrayInputStream(JSON.getBytes(StandardCharsets.UTF_8)))) {
+      Map<String, Object> root = tape.root();
+      Map<String, Object> child = (Map<String, Object>) root.get("child");
+
+      assertEquals(Arrays.asList("a", "b"), new ArrayList<>(child.keySet()));
+      assertEquals(Arrays.asList(1.0, "x", Map.of("deep", false)), child.get("a"));
+      assertNull(child.get("missing"));
+      assertThrows(UnsupportedOperationException.class, () -> child.put("b", 2));
+      assertThrows(UnsupportedOperationException.class, () -> ((List<Object>) child.get("a")).add(1));
+
+      assertNull(child.put("_hash", "abc"));
+      assertEquals("abc", ((Map<String, Object>) tape.root().get("child")).get("_hash"));
+      assertEquals(3, child.size());
+    }
+  }
+
+  @Test
+  void testExistingHashesAreKept() {
+    String json = "{\"a\":{\"b\":1,\"_hash\":\"keep\"},\"_hash\":\"root\"}";
+    JsonHash keeping = new JsonHash(22, 10, false, true);
+
+    try (JsonTape tape = JsonTape.parse(json)) {
+      assertEquals("root", tape.hash(keeping));
+      assertEquals("keep", ((Map<String, Object>) tape.root().get("a")).get("_hash"));
+      assertEquals(jh.applyTo(gson.fromJson(json, Map.class)).get("_hash"), tape.hash(jh));
+    }
+  }
+
+  @Test
+  void testLargeDocumentGrowsTheTape() {
+    StringBuilder json = new StringBuilder("{\"items\":[");
+    for (int i = 0; i < 20_000; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"v\":\"value").append(i).append("\"}");
+    }
+    json.append("]}");
+    JsonHash chunked = new JsonHash(22, 10, true, true, null, 1000);
+
+    try (JsonTape tape = JsonTape.parse(json.toString())) {
+      assertTrue(tape.byteSize() > 1 << 16);
+      assertEquals(chunked.rootHash(json.toString()), tape.hash(chunked));
+      assertEquals(20_000, ((List<Object>) tape.root().get("items")).size());
+    }
+  }
+
+  @Test
+  void testValuesSpanningSegments() throws Exception {
+    // Segments of 8 and 128 bytes instead of 1 GB through the package-private overload
+    Method parse = JsonTape.class.getDeclaredMethod("parse", Reader.class, int.class);
+    parse.setAccessible(true);
+    StringBuilder json = new StringBuilder("{\"long\":\"" + "ü".repeat(100) + "\",\"items\":[");
+    for (int i = 0; i < 200; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"v\":\"value").append(i).append("\"}");
+    }
+    json.append("],\"rest\":").append(JSON).append("}");
+    Map<String, Object> expected = jh.applyTo(gson.fromJson(json.toString(), Map.class), true);
+
+    for (int segmentBits : new int[] { 3, 7 }) {
+      try (JsonTape tape = (JsonTape) parse.invoke(null, new StringReader(json.toString()), segmentBits)) {
+        assertEquals(expected.get("_hash"), tape.hash(jh), "segment bits " + segmentBits);
+        assertEquals(expected, tape.root(), "segment bits " + segmentBits);
+      }
+    }
+  }
+
+  @Test
+  void testClosedTapeRejectsAccess() {
+    JsonTape tape = JsonTape.parse(JSON);
+    Map<String, Object> root = tape.root();
+    tape.close();
+    tape.close();
+
+    assertThrows(IllegalStateException.class, () -> root.get("name"));
+    assertThrows(IllegalStateException.class, tape::root);
+    assertThrows(RuntimeException.class, () -> JsonTape.parse("[1]"));
+  }
+
+  @Test
+  void testRejectsDuplicateKeys() {
+    String json = "{\"a\":1,\"a\":2}";
+    assertEquals(assertThrows(RuntimeException.class, () -> jh.applyToString(json)).getMessage(),
+        assertThrows(RuntimeException.class, () -> JsonTape.parse(json)).getMessage());
+    assertEquals("duplicate key: a", assertThrows(RuntimeException.class,
+        () -> JsonTape.parse("{\"b\":{\"a\":1,\"c\":2,\"a\":1}}")).getMessage());
+  }
+
+  @Test
+  void testCloseFreesMemoryWhereUnsafeIsAvailable() {
+    assumeTrue(JsonTape.freesMemoryOnClose(), "sun.misc.Unsafe is not accessible");
+    JsonTape tape = JsonTape.parse(JSON);
+    assertDoesNotThrow(tape::close);
+  }
+}
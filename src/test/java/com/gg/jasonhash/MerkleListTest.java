@@ -0,0 +1,145 @@
+package com.gg.jasonhash;
+
+import org.junit.jupiter.api.Test;
+import com.gg.jsonhash.JsonHash;
+import com.gg.jsonhash.MerkleList;
+import com.google.gson.Gson;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("unchecked")
+public class MerkleListTest {
+  private final JsonHash jh = new JsonHash();
+  private final JsonHash chunking = new JsonHash(22, 10, true, true, null, 2);
+
+  @Test
+  void testSmallArraysAreHashedInline() {
+    Map<String, Object> json = Map.of("key", Arrays.asList("value", 1.0));
+    assertEquals(jh.applyTo(json).get("_hash"), chunking.applyTo(json).get("_hash"));
+  }
+
+  @Test
+  void testLargeArrayContributesMerkleRoot() {
+    Map<String, Object> json = chunking.applyTo(Map.of(
+        "key", Arrays.asList("a", 1.0, true, Map.of("k", "v"), "e")));
+
+    String objectHash = jh.calcHash("{\"k\":\"v\"}");
+    String leaf0 = jh.calcHash("[\"l\",\"a\",1]");
+    String leaf1 = jh.calcHash("[\"l\",true,\"" + objectHash + "\"]");
+    String leaf2 = jh.calcHash("[\"l\",\"e\"]");
+    String node01 = jh.calcHash("[\"n\",\"" + leaf0 + "\",\"" + leaf1 + "\"]");
+    String root = jh.calcHash("[\"n\",\"" + node01 + "\",\"" + leaf2 + "\"]");
+
+    assertEquals(jh.calcHash("{\"key\":\"" + root + "\"}"), json.get("_hash"));
+    assertEquals(objectHash, ((Map<String, Object>) ((List<Object>) json.get("key")).get(3)).get("_hash"));
+  }
+
+  @Test
+  void testRootHashVariantsAgree() {
+    String jsonString = "{\"a\": [1, 2, 3, [4, 5, 6], {\"b\": [7, 8, 9, 10]}], \"c\": {\"d\": [\"x\", \"y\", \"z\"]}}";
+    Map<String, Object> json = new Gson().fromJson(jsonString, Map.class);
+    String expected = (String) chunking.applyTo(json).get("_hash");
+
+    assertNotEquals(jh.rootHash(json), expected);
+    assertEquals(expected, chunking.rootHash(json));
+    assertEquals(expected, chunking.rootHash(jsonString));
+  }
+
+  @Test
+  void testNullsAreDroppedBeforeChunking() {
+    String jsonString = "{\"a\":[null,1,2],\"b\":{\"c\":[1,null,null,2,3,null]}}";
+    Map<String, Object> json = new Gson().fromJson(jsonString, Map.class);
+    String hashedString = chunking.applyToString(jsonString);
+    String expected = (String) chunking.applyTo(json).get("_hash");
+
+    assertEquals(jh.calcHash("{\"a\":[1,2],\"b\":\"" + chunking.rootHash("{\"c\":[1,2,3]}") + "\"}"), expected);
+    assertEquals(expected, chunking.rootHash(json));
+    assertEquals(expected, chunking.rootHash(jsonString));
+    assertDoesNotThrow(() -> chunking.validate(new ByteArrayInputStream(hashedString.getBytes(StandardCharsets.UTF_8))));
+    assertEquals(MerkleList.of(jh, Arrays.asList(1, 2, 3), 2).rootHash(),
+        MerkleList.of(jh, Arrays.asList(null, 1, 2, null, 3), 2).rootHash());
+  }
+
+  @Test
+  void testStreamingPathsAgreeForAllArraySizes() {
+    for (int size = 0; size <= 40; size++) {
+      List<Object> list = new ArrayList<>();
+      for (int i = 0; i < size; i++) {
+        list.add(i % 5 == 0 ? Map.of("i", (double) i) : (double) i);
+      }
+      Map<String, Object> json = new HashMap<>(Map.of("list", list));
+      String hashedString = new Gson().toJson(chunking.applyTo(json));
+      String expected = (String) chunking.applyTo(json).get("_hash");
+
+      assertEquals(expected, chunking.rootHash(new Gson().toJson(json)), "size " + size);
+      assertDoesNotThrow(() -> chunking.validate(new ByteArrayInputStream(hashedString.getBytes(StandardCharsets.UTF_8))),
+          "size " + size);
+    }
+  }
+
+  @Test
+  void testParallelAndSequentialHashingAgree() {
+    List<Object> list = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      list.add(i % 3 == 0 ? Map.of("i", i) : i);
+    }
+    String sequential = MerkleList.of(jh, list, 16).rootHash();
+    String parallel = MerkleList.of(jh, list, 16, true).rootHash();
+    assertEquals(sequential, parallel);
+    assertEquals(63, MerkleList.of(jh, list, 16).chunkCount());
+  }
+
+  @Test
+  void testSetRehashesIncrementally() {
+    List<Object> list = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      list.add(i);
+    }
+    MerkleList merkleList = MerkleList.of(jh, list, 8);
+    String before = merkleList.rootHash();
+
+    merkleList.set(42, "changed");
+    list.set(42, "changed");
+    assertNotEquals(before, merkleList.rootHash());
+    assertEquals(MerkleList.of(jh, list, 8).rootHash(), merkleList.rootHash());
+  }
+
+  @Test
+  void testProofs() {
+    List<Object> list = new ArrayList<>();
+    for (int i = 0; i < 37; i++) {
+      list.add("item" + i);
+    }
+    MerkleList merkleList = MerkleList.of(jh, list, 4);
+    String root = merkleList.rootHash();
+
+    for (int chunk = 0; chunk < merkleList.chunkCount(); chunk++) {
+      List<MerkleList.ProofStep> proof = merkleList.proof(chunk);
+      assertTrue(MerkleList.verify(jh, merkleList.chunkItems(chunk), proof, root));
+    }
+
+    List<Object> tampered = new ArrayList<>(merkleList.chunkItems(3));
+    tampered.set(1, "tampered");
+    assertFalse(MerkleList.verify(jh, tampered, merkleList.proof(3), root));
+
+    // A chunk made of the two child hashes of an inner node is not that node
+    List<MerkleList.ProofStep> proof = merkleList.proof(0);
+    List<Object> forged = Arrays.asList(merkleList.chunkHash(0), proof.get(0).getHash());
+    assertFalse(MerkleList.verify(jh, forged, proof.subList(1, proof.size()), root));
+  }
+
+  @Test
+  void testThrowsWhenChunkSizeIsNotPositive() {
+    String message = "";
+    try {
+      MerkleList.of(jh, Arrays.asList(1, 2), 0);
+    } catch (Exception e) {
+      message = e.getMessage();
+    }
+    assertEquals("Chunk size must be positive but was 0.", message);
+  }
+}
@@ -0,0 +1,152 @@
+package com.gg.jasonhash;
+
+import org.junit.jupiter.api.Test;
+import com.gg.jsonhash.JsonHash;
+import com.gg.jsonhash.StringLeaf;
+
+import java.io.StringReader;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ObjectHasherTest {
+  private final JsonHash jh = new JsonHash();
+
+  record Point(int x, double y, boolean visible) {
+  }
+
+  record Drawing(String name, Point origin, List<Object> items, Map<String, Object> meta, Double scale) {
+  }
+
+  public static class Cabinet {
+    private final String name;
+    private final double width;
+    private final Integer shelves;
+
+    public Cabinet(String name, double width, Integer shelves) {
+      this.name = name;
+      this.width = width;
+      this.shelves = shelves;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public double getWidth() {
+      return width;
+    }
+
+    public Integer getShelves() {
+      return shelves;
+    }
+
+    public boolean isEmpty() {
+      return shelves == null;
+    }
+  }
+
+  private static Map<String, Object> pointMap(int x, double y, boolean visible) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("x", x);
+    map.put("y", y);
+    map.put("visible", visible);
+    return map;
+  }
+
+  @Test
+  void testRecordHashEqualsMapHash() {
+    Point point = new Point(1, 2.0123456789123, true);
+    assertEquals(jh.rootHash(pointMap(1, 2.0123456789123, true)), jh.objectHasher(Point.class).hash(point));
+    assertEquals(jh.calcHash("{\"visible\":true,\"x\":1,\"y\":2.0123456789}"), jh.objectHasher(Point.class).hash(point));
+  }
+
+  @Test
+  void testNestedRecordHashEqualsMapHash() {
+    Drawing drawing = new Drawing(
+        "kitchen \"main\"",
+        new Point(0, 0.0, false),
+        Arrays.asList(new Point(1, 1.5, true), Arrays.asList(new Point(2, 2.5, false), "x"), 3, Map.of("k", "v")),
+        Map.of("author", "gg", "tags", Arrays.asList("a", "b")),
+        null);
+
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("name", "kitchen \"main\"");
+    map.put("origin", pointMap(0, 0.0, false));
+    map.put("items", Arrays.asList(
+        pointMap(1, 1.5, true), Arrays.asList(pointMap(2, 2.5, false), "x"), 3, Map.of("k", "v")));
+    map.put("meta", Map.of("author", "gg", "tags", Arrays.asList("a", "b")));
+
+    assertEquals(jh.rootHash(map), jh.objectHasher(Drawing.class).hash(drawing));
+
+    JsonHash chunking = new JsonHash(22, 10, true, true, null, 2);
+    assertEquals(chunking.rootHash(map), chunking.objectHasher(Drawing.class).hash(drawing));
+  }
+
+  @Test
+  void testBeanHashEqualsMapHash() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("name", "Unterschrank 60cm");
+    map.put("width", 600.0);
+    map.put("shelves", 2);
+    map.put("empty", false);
+
+    assertEquals(jh.rootHash(map),
+        jh.objectHasher(Cabinet.class).hash(new Cabinet("Unterschrank 60cm", 600.0, 2)));
+
+    map.remove("shelves");
+    map.put("empty", true);
+    assertEquals(jh.rootHash(map),
+        jh.objectHasher(Cabinet.class).hash(new Cabinet("Unterschrank 60cm", 600.0, null)));
+  }
+
+  public static class Switch {
+    public boolean isOn() {
+      return true;
+    }
+
+    public boolean getOn() {
+      return false;
+    }
+  }
+
+  @Test
+  void testIsGetterWinsOverGetGetterOfSameName() {
+    assertEquals(jh.rootHash(Map.of("on", true)), jh.objectHasher(Switch.class).hash(new Switch()));
+  }
+
+  record Attachment(String name, StringLeaf content) {
+  }
+
+  @Test
+  void testStringLeafPropertiesAreStreamed() {
+    int[] opened = new int[1];
+    StringLeaf content = StringLeaf.ofReader(() -> {
+      opened[0]++;
+      return new StringReader("large \"value\"");
+    });
+
+    assertEquals(jh.rootHash(Map.of("name", "a", "content", "large \"value\"")),
+        jh.objectHasher(Attachment.class).hash(new Attachment("a", content)));
+    assertEquals(1, opened[0]);
+  }
+
+  @Test
+  void testObjectHasherIsCachedPerClass() {
+    assertSame(jh.objectHasher(Point.class), jh.objectHasher(Point.class));
+  }
+
+  record WithLong(long value) {
+  }
+
+  @Test
+  void testThrowsWhenPropertyTypeIsUnsupported() {
+    String message = "";
+    try {
+      jh.objectHasher(WithLong.class);
+    } catch (Exception e) {
+      message = e.getMessage();
+    }
+    assertEquals("Unsupported type: long", message);
+  }
+}
@@ -0,0 +1,80 @@
+package com.gg.jasonhash;
+
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import com.gg.jsonhash.JsonHash;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares hashing string values through the fused canonical writer, once
+ * with the vectorized and once with the scalar ASCII scanner, with the former
+ * path of escaping with replace, building the canonical string and encoding it
+ * with getBytes.
+ *
+ * The forks need the multi-release JAR to find the vectorized scanner. Run
+ * with:
+ * mvn package -DskipTests dependency:build-classpath -Dmdep.outputFile=target/test-classpath.txt
+ * java -cp target/test-classes:target/gg-hash-1.0-SNAPSHOT.jar:$(cat target/test-classpath.txt)
+ * org.openjdk.jmh.Main StringHashingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringHashingBenchmark {
+  @Param({ "16", "1024", "4000000" })
+  public int length;
+
+  @Param({ "ascii", "mixed" })
+  public String content;
+
+  private final JsonHash jh = new JsonHash();
+  private Map<String, Object> json;
+  private String value;
+
+  @Setup
+  public void setUp() {
+    StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      if (content.equals("mixed") && i % 50 == 0) {
+        builder.append(i % 100 == 0 ? '"' : 'ü');
+      } else {
+        builder.append((char) ('a' + i % 26));
+      }
+    }
+    value = builder.toString();
+    json = Map.of("value", value);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+  public String vectorScanner() {
+    return jh.rootHash(json);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "-Dcom.gg.jsonhash.vector=false")
+  public String scalarScanner() {
+    return jh.rootHash(json);
+  }
+
+  @Benchmark
+  public String replaceAndGetBytes() throws Exception {
+    String canonical = "{\"value\":\"" + value.replace("\"", "\\\"") + "\"}";
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    byte[] hash = digest.digest(canonical.getBytes(StandardCharsets.UTF_8));
+    return Base64.encodeBase64URLSafeString(hash).substring(0, jh.getHashLength());
+  }
+
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder().include(StringHashingBenchmark.class.getSimpleName()).build()).run();
+  }
+}
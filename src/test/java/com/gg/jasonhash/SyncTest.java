@@ -0,0 +1,187 @@
+package com.gg.jasonhash;
+
+import org.junit.jupiter.api.Test;
+import com.gg.jsonhash.JsonHash;
+import com.gg.jsonhash.StringLeaf;
+import com.gg.jsonhash.sync.StreamTransport;
+import com.gg.jsonhash.sync.SyncClient;
+import com.gg.jsonhash.sync.SyncResult;
+import com.gg.jsonhash.sync.SyncServer;
+import com.gg.jsonhash.sync.SyncTransport;
+import com.google.gson.Gson;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("unchecked")
+public class SyncTest {
+  private final JsonHash jh = new JsonHash();
+  private final Gson gson = new Gson();
+
+  private Map<String, Object> document() {
+    StringBuilder items = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      items.append(i == 0 ? "" : ",")
+          .append("{\"id\":").append(i).append(",\"name\":\"item").append(i)
+          .append("\",\"tags\":[\"a\",\"b\"],\"details\":{\"price\":").append(i * 1.5).append("}}");
+    }
+    Map<String, Object> doc = gson.fromJson("{\"title\":\"catalog\",\"items\":[" + items + "]}", Map.class);
+    return jh.applyTo(doc, true);
+  }
+
+  private static Map<String, Object> details(Map<String, Object> doc, int item) {
+    return (Map<String, Object>) ((Map<String, Object>) ((List<Object>) doc.get("items")).get(item)).get("details");
+  }
+
+  @Test
+  void testSyncTransfersOnlyTheChangedLeaf() throws Exception {
+    Map<String, Object> remote = document();
+    details(remote, 123).put("price", 999.0);
+    jh.applyTo(remote, true);
+    Map<String, Object> local = document();
+
+    SyncResult result = new SyncClient(jh, SyncTransport.direct(new SyncServer(jh, remote))).sync(local);
+
+    assertEquals(remote, local);
+    assertEquals(jh.rootHash(remote), jh.rootHash(local));
+    assertEquals(1, result.getTransferredValues());
+    assertTrue(result.getBytesTransferred() < result.getFullDocumentBytes(), result.toString());
+  }
+
+  @Test
+  void testEqualDocumentsNeedOneRoundTrip() throws Exception {
+    Map<String, Object> remote = document();
+    Map<String, Object> local = document();
+
+    SyncResult result = new SyncClient(jh, SyncTransport.direct(new SyncServer(jh, remote))).sync(local);
+
+    assertEquals(1, result.getRoundTrips());
+    assertEquals(0, result.getTransferredValues());
+  }
+
+  @Test
+  void testAddedRemovedAndRetypedValues() throws Exception {
+    Map<String, Object> remote = document();
+    remote.remove("title");
+    remote.put("owner", new HashMap<>(Map.of("name", "shop")));
+    List<Object> items = (List<Object>) remote.get("items");
+    items.remove(items.size() - 1);
+    ((Map<String, Object>) items.get(5)).put("tags", "none");
+    ((Map<String, Object>) items.get(6)).put("tags", new ArrayList<>(Arrays.asList("a", "b", "c")));
+    jh.applyTo(remote, true);
+    Map<String, Object> local = document();
+
+    new SyncClient(jh, SyncTransport.direct(new SyncServer(jh, remote))).sync(local);
+
+    assertEquals(jh.rootHash(remote), jh.rootHash(local));
+    assertEquals(remote.get("_hash"), local.get("_hash"));
+    assertEquals(199, ((List<Object>) local.get("items")).size());
+    assertFalse(local.containsKey("title"));
+  }
+
+  @Test
+  void testFailedSyncCanBeRetried() throws Exception {
+    Map<String, Object> remote = document();
+    remote.put("title", "shop");
+    details(remote, 123).put("price", 999.0);
+    jh.applyTo(remote, true);
+    Map<String, Object> local = document();
+    String localHash = (String) local.get("_hash");
+    String itemHash = (String) ((Map<String, Object>) ((List<Object>) local.get("items")).get(123)).get("_hash");
+
+    SyncServer server = new SyncServer(jh, remote);
+    int[] requests = {0};
+    SyncTransport failing = request -> {
+      if (++requests[0] == 5) {
+        throw new IOException("Connection lost");
+      }
+      return server.handle(request);
+    };
+    assertThrows(IOException.class, () -> new SyncClient(jh, failing).sync(local));
+
+    // Changed objects keep their old hashes until the sync succeeds
+    assertEquals("shop", local.get("title"));
+    assertEquals(localHash, local.get("_hash"));
+    assertEquals(itemHash, ((Map<String, Object>) ((List<Object>) local.get("items")).get(123)).get("_hash"));
+
+    new SyncClient(jh, SyncTransport.direct(server)).sync(local);
+    assertEquals(remote, local);
+  }
+
+  @Test
+  void testStringLeavesAreSentAsStrings() throws Exception {
+    Map<String, Object> remote = document();
+    remote.put("title", StringLeaf.of("catalog \"2\""));
+    jh.applyTo(remote, true);
+    Map<String, Object> local = document();
+
+    new SyncClient(jh, SyncTransport.direct(new SyncServer(jh, remote))).sync(local);
+
+    assertEquals("catalog \"2\"", local.get("title"));
+    assertEquals(remote.get("_hash"), local.get("_hash"));
+    assertEquals(remote.get("_hash"), jh.rootHash(local));
+  }
+
+  @Test
+  void testStreamsRejectInvalidMessageLengths() throws Exception {
+    SyncServer server = new SyncServer(jh, document());
+    for (int length : new int[] { -1, Integer.MAX_VALUE }) {
+      byte[] request = ByteBuffer.allocate(4).putInt(length).array();
+      IOException e = assertThrows(IOException.class,
+          () -> server.serve(new ByteArrayInputStream(request), new ByteArrayOutputStream()));
+      assertTrue(e.getMessage().startsWith("Invalid message length " + length), e.getMessage());
+    }
+
+    // The response to the root request is longer than 16 bytes
+    ByteArrayOutputStream requests = new ByteArrayOutputStream();
+    ByteArrayOutputStream responses = new ByteArrayOutputStream();
+    try (StreamTransport recorder = new StreamTransport(new ByteArrayInputStream(new byte[0]), requests)) {
+      assertThrows(IOException.class, () -> recorder.exchange("{\"op\":\"root\"}"));
+    }
+    server.serve(new ByteArrayInputStream(requests.toByteArray()), responses);
+    try (StreamTransport transport = new StreamTransport(
+        new ByteArrayInputStream(responses.toByteArray()), new ByteArrayOutputStream(), 16)) {
+      IOException e = assertThrows(IOException.class, () -> transport.exchange("{\"op\":\"root\"}"));
+      assertTrue(e.getMessage().endsWith("the maximum is 16 bytes."), e.getMessage());
+    }
+  }
+
+  @Test
+  void testSyncOverStreams() throws Exception {
+    Map<String, Object> remote = document();
+    details(remote, 7).put("price", 1.25);
+    jh.applyTo(remote, true);
+    Map<String, Object> local = document();
+
+    PipedOutputStream toServer = new PipedOutputStream();
+    PipedInputStream serverIn = new PipedInputStream(toServer, 1 << 16);
+    PipedOutputStream toClient = new PipedOutputStream();
+    PipedInputStream clientIn = new PipedInputStream(toClient, 1 << 16);
+    SyncServer server = new SyncServer(jh, remote);
+    Thread serverThread = new Thread(() -> {
+      try (toClient) {
+        server.serve(serverIn, toClient);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    serverThread.start();
+
+    SyncResult result;
+    try (StreamTransport transport = new StreamTransport(clientIn, toServer)) {
+      result = new SyncClient(jh, transport).sync(local);
+    }
+    serverThread.join(10_000);
+
+    assertFalse(serverThread.isAlive());
+    assertEquals(remote, local);
+    assertTrue(result.getRoundTrips() > 1);
+  }
+}